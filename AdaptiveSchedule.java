@@ -0,0 +1,50 @@
+/**
+ * Cools quickly while most perturbations are accepted, when the chain is close to a random walk, and
+ * slowly once the acceptance rate drops, when the structure of the index map is being decided.
+ */
+public class AdaptiveSchedule implements AnnealingSchedule {
+
+	private final double initialTemp, finalTemp;
+	private final double fastMultiplier, slowMultiplier;
+	private final double highAcceptanceRate;
+	private final int maxPerturbations;
+
+
+	/**
+	 * @param initialTemp Temperature of the first stage.
+	 * @param finalTemp Annealing stops once the temperature drops below this.
+	 * @param fastMultiplier Cooling factor while the acceptance rate is above highAcceptanceRate.
+	 * @param slowMultiplier Cooling factor otherwise, between fastMultiplier and 1.
+	 * @param highAcceptanceRate Acceptance rate above which the chain cools quickly.
+	 * @param maxPerturbations Number of perturbations in a row without a new best energy that end a stage.
+	 */
+	public AdaptiveSchedule(double initialTemp, double finalTemp, double fastMultiplier, double slowMultiplier,
+			double highAcceptanceRate, int maxPerturbations) {
+		if (!(initialTemp > 0 && finalTemp > 0 && fastMultiplier > 0 && fastMultiplier <= slowMultiplier && slowMultiplier < 1
+				&& maxPerturbations > 0))
+			throw new IllegalArgumentException("Invalid adaptive schedule");
+		this.initialTemp = initialTemp;
+		this.finalTemp = finalTemp;
+		this.fastMultiplier = fastMultiplier;
+		this.slowMultiplier = slowMultiplier;
+		this.highAcceptanceRate = highAcceptanceRate;
+		this.maxPerturbations = maxPerturbations;
+	} // end constructor
+
+	@Override
+	public double getInitialTemperature() {
+		return initialTemp;
+	} // end getInitialTemperature()
+
+	@Override
+	public int getMaxPerturbations() {
+		return maxPerturbations;
+	} // end getMaxPerturbations()
+
+	@Override
+	public double nextTemperature(double temp, double acceptanceRate, long elapsedNanos) {
+		double nextTemp = temp * (acceptanceRate > highAcceptanceRate ? fastMultiplier : slowMultiplier);
+		return nextTemp >= finalTemp ? nextTemp : 0;
+	} // end nextTemperature()
+
+}
@@ -0,0 +1,18 @@
+/**
+ * Receives a trace of the simulated annealing in IndexMapTrainer, one call per stage of each chain.
+ * Chains run concurrently, so implementations must be thread-safe.
+ */
+public interface AnnealingObserver {
+
+	/**
+	 * Called at the end of every stage.
+	 * @param chain Number of the chain, starting at 0.
+	 * @param stage Number of the stage within the chain, starting at 0.
+	 * @param temp Temperature of the stage.
+	 * @param energy Energy of the current state.
+	 * @param bestEnergy Lowest energy the chain has found.
+	 * @param acceptanceRate Fraction of the perturbations accepted during the stage.
+	 */
+	void stageFinished(int chain, int stage, double temp, double energy, double bestEnergy, double acceptanceRate);
+
+}
@@ -0,0 +1,81 @@
+/**
+ * How CoderFactory orders the indices of each codebook with simulated annealing. The defaults run the
+ * single chain of the thesis with a fixed seed and the thesis schedule; more chains search more index
+ * maps and keep the best, using the processors the quantizers alone leave idle.
+ *
+ * To retrain within a fixed window, set a schedule made with TimeBudgetedSchedule.forWindow just before
+ * calling CoderFactory, so the LBG training that precedes annealing counts against the window too.
+ */
+public class AnnealingOptions {
+
+	private static final long DEFAULT_SEED = 123456789; // the seed of IndexMapTrainer.train(), so the default coder is unchanged
+
+	private int numChains = 1;
+	private long seed = DEFAULT_SEED;
+	private AnnealingSchedule schedule = GeometricSchedule.THESIS;
+	private int stagnationLimit = 0;
+	private AnnealingObserver observer = null;
+
+	/**
+	 * @param numChains Number of independent annealing chains per quantizer.
+	 */
+	public void setNumChains(int numChains) {
+		if (numChains <= 0)
+			throw new IllegalArgumentException("Number of chains must be positive: " + numChains);
+		this.numChains = numChains;
+	} // end setNumChains()
+
+	public int getNumChains() {
+		return numChains;
+	} // end getNumChains()
+
+	/**
+	 * @param seed Seed of the chains. The same seed and number of chains always give the same coder.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	} // end setSeed()
+
+	public long getSeed() {
+		return seed;
+	} // end getSeed()
+
+	/**
+	 * @param schedule The cooling schedule, shared by every chain of every quantizer.
+	 */
+	public void setSchedule(AnnealingSchedule schedule) {
+		if (schedule == null)
+			throw new IllegalArgumentException("Schedule must not be null");
+		this.schedule = schedule;
+	} // end setSchedule()
+
+	public AnnealingSchedule getSchedule() {
+		return schedule;
+	} // end getSchedule()
+
+	/**
+	 * @param stagnationLimit Number of stages without a new best energy before a chain stops, or 0 for no limit.
+	 */
+	public void setStagnationLimit(int stagnationLimit) {
+		if (stagnationLimit < 0)
+			throw new IllegalArgumentException("Stagnation limit must not be negative: " + stagnationLimit);
+		this.stagnationLimit = stagnationLimit;
+	} // end setStagnationLimit()
+
+	public int getStagnationLimit() {
+		return stagnationLimit;
+	} // end getStagnationLimit()
+
+	/**
+	 * @param observer Receives every stage of every quantizer's chains, or null for none. Chain numbers
+	 * start at 0 for each quantizer, and the quantizers train concurrently.
+	 */
+	public void setObserver(AnnealingObserver observer) {
+		this.observer = observer;
+	} // end setObserver()
+
+	public AnnealingObserver getObserver() {
+		return observer;
+	} // end getObserver()
+
+}
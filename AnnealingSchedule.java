@@ -0,0 +1,35 @@
+/**
+ * The cooling schedule of the simulated annealing in IndexMapTrainer. A schedule keeps no state of
+ * its own, since it is told the time each chain has run, so one schedule can be shared by all chains.
+ */
+public interface AnnealingSchedule {
+
+	/**
+	 * @return Temperature of the first stage.
+	 */
+	double getInitialTemperature();
+
+	/**
+	 * @return Number of perturbations in a row without a new best energy that end a stage.
+	 */
+	int getMaxPerturbations();
+
+	/**
+	 * Chooses the temperature of the next stage.
+	 * @param temp Temperature of the stage that just finished.
+	 * @param acceptanceRate Fraction of the perturbations accepted during that stage.
+	 * @param elapsedNanos Time since the chain started.
+	 * @return Temperature of the next stage, or 0 to stop annealing.
+	 */
+	double nextTemperature(double temp, double acceptanceRate, long elapsedNanos);
+
+	/**
+	 * Tells the chains to stop at a fixed time, whatever their temperature. A chain checks this before it
+	 * starts and after every stage.
+	 * @return Whether the schedule's deadline has passed. Schedules without a deadline never expire.
+	 */
+	default boolean isPastDeadline() {
+		return false;
+	}
+
+}
@@ -0,0 +1,521 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Codes many images at once, as a pipeline of stages joined by bounded queues: read, transform,
+ * quantize, an optional channel, decode and write. Every stage has its own worker threads, so reading
+ * and writing files overlap with the arithmetic. When a stage falls behind its input queue fills, and
+ * the stages before it block until there is room again.
+ *
+ * With PNG output the received bits are decoded and written as an image, and the PSNR is measured.
+ * With BITSTREAM output the decode stage is skipped and the received bits are written with
+ * EncodedImage.writeTo. Each image has its own random number generator for the channel, split from
+ * the seed in input order, so the output does not depend on the number of threads.
+ *
+ * Usage: java BatchPipeline -input <dir or file>[,...] -output <dir> (-coder <file> | -ber <rate>)
+ *        [-burst <level>] [-rate 1] [-format png|bits] [-queue 16] [-seed 123456789]
+ *        [-read N] [-transform N] [-quantize N] [-channel N] [-decode N] [-write N]
+ * A channel is simulated whenever -ber is given; without -coder, the coder trained for that channel is used.
+ */
+public class BatchPipeline {
+
+	/**
+	 * The stages of the pipeline, in order.
+	 */
+	public enum Stage {
+		READ, TRANSFORM, QUANTIZE, CHANNEL, DECODE, WRITE
+	}
+
+	/**
+	 * What the write stage produces.
+	 */
+	public enum OutputFormat {
+		PNG,      // the decoded image
+		BITSTREAM // the received bits, as written by EncodedImage.writeTo
+	}
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 16;
+	private static final long DEFAULT_SEED = 123456789;
+	private static final String BITSTREAM_EXTENSION = ".bits";
+
+	private final Coder coder;
+	private final File outputDirectory;
+	private Channel channel; // null when no channel is simulated
+	private OutputFormat outputFormat = OutputFormat.PNG;
+	private final int[] parallelism; // [stage] : number of worker threads
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private long seed = DEFAULT_SEED;
+	private volatile long[] lastStageBusyNanos; // [stage] : busy time of the last run, summed over workers
+	private volatile long lastElapsedNanos;
+
+
+	/**
+	 * Creates a pipeline with no channel, PNG output and one thread per stage, except for the transform
+	 * and quantize stages, which get one per processor.
+	 * @param coder The coder. It is shared by every worker.
+	 * @param outputDirectory Where the output files are written.
+	 */
+	public BatchPipeline(Coder coder, File outputDirectory) {
+		this.coder = coder;
+		this.outputDirectory = outputDirectory;
+		this.parallelism = new int[Stage.values().length];
+		Arrays.fill(parallelism, 1);
+		int numProcessors = Runtime.getRuntime().availableProcessors();
+		parallelism[Stage.TRANSFORM.ordinal()] = numProcessors;
+		parallelism[Stage.QUANTIZE.ordinal()] = numProcessors;
+	} // end constructor
+
+	/**
+	 * @param channel The channel the encoded bits are sent through, or null to skip the channel stage.
+	 */
+	public void setChannel(Channel channel) {
+		this.channel = channel;
+	} // end setChannel()
+
+	public void setOutputFormat(OutputFormat outputFormat) {
+		this.outputFormat = outputFormat;
+	} // end setOutputFormat()
+
+	/**
+	 * @param stage A stage of the pipeline.
+	 * @param numThreads Number of worker threads of that stage.
+	 */
+	public void setParallelism(Stage stage, int numThreads) {
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("A stage needs at least one thread: " + numThreads);
+		parallelism[stage.ordinal()] = numThreads;
+	} // end setParallelism()
+
+	/**
+	 * @param queueCapacity Number of images each queue between two stages can hold.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity <= 0)
+			throw new IllegalArgumentException("Queues must hold at least one image: " + queueCapacity);
+		this.queueCapacity = queueCapacity;
+	} // end setQueueCapacity()
+
+	/**
+	 * @param seed Seed of the channel realizations.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	} // end setSeed()
+
+	/**
+	 * Runs every image through the pipeline and waits for all of them. An image that fails at some stage
+	 * is reported in its result and does not stop the others.
+	 * @param imageFiles The images to code.
+	 * @return One result per image, in input order.
+	 * @throws InterruptedException If interrupted while waiting for the workers.
+	 */
+	public List<Result> run(List<File> imageFiles) throws InterruptedException {
+		List<Stage> stages = new ArrayList<>(Arrays.asList(Stage.values()));
+		if (channel == null)
+			stages.remove(Stage.CHANNEL);
+		if (outputFormat == OutputFormat.BITSTREAM)
+			stages.remove(Stage.DECODE);
+
+		// the input queue holds every job up front; the others are bounded, which gives the backpressure
+		List<BlockingQueue<Job>> queues = new ArrayList<>();
+		queues.add(new LinkedBlockingQueue<>());
+		for (int s = 1; s < stages.size(); s++)
+			queues.add(new ArrayBlockingQueue<>(queueCapacity));
+		Job[] jobs = new Job[imageFiles.size()];
+		SplittableRandom seeds = new SplittableRandom(seed);
+		Map<String, File> outputOwners = new HashMap<>(); // output name, ignoring case, to the image that writes it
+		for (int index = 0; index < jobs.length; index++) {
+			jobs[index] = new Job(imageFiles.get(index), seeds.split());
+			jobs[index].outputName = getOutputName(imageFiles.get(index));
+			File owner = outputOwners.putIfAbsent(jobs[index].outputName.toLowerCase(Locale.ROOT), imageFiles.get(index));
+			if (owner == null)
+				queues.get(0).add(jobs[index]);
+			else // never overwrite another image's output
+				jobs[index].fail(Stage.WRITE, new IOException("Output " + jobs[index].outputName + " is already written for " + owner));
+		}
+		for (int w = 0; w < parallelism[stages.get(0).ordinal()]; w++)
+			queues.get(0).add(Job.END);
+
+		AtomicLong[] busyNanos = new AtomicLong[Stage.values().length];
+		List<Thread> workers = new ArrayList<>();
+		for (int s = 0; s < stages.size(); s++) {
+			Stage stage = stages.get(s);
+			BlockingQueue<Job> input = queues.get(s);
+			BlockingQueue<Job> output = s + 1 < stages.size() ? queues.get(s + 1) : null;
+			int numDownstreamWorkers = s + 1 < stages.size() ? parallelism[stages.get(s + 1).ordinal()] : 0;
+			AtomicInteger runningWorkers = new AtomicInteger(parallelism[stage.ordinal()]);
+			busyNanos[stage.ordinal()] = new AtomicLong();
+			for (int w = 0; w < parallelism[stage.ordinal()]; w++) {
+				Thread worker = new Thread(() -> runWorker(stage, input, output, runningWorkers, numDownstreamWorkers, busyNanos[stage.ordinal()]),
+						"pipeline-" + stage.name().toLowerCase(Locale.ROOT) + "-" + w);
+				worker.setDaemon(true);
+				workers.add(worker);
+			}
+		}
+		long timeInit = System.nanoTime();
+		for (Thread worker : workers)
+			worker.start();
+		try {
+			for (Thread worker : workers)
+				worker.join();
+		} catch (InterruptedException e) {
+			for (Thread worker : workers)
+				worker.interrupt();
+			throw e;
+		}
+		long elapsedNanos = System.nanoTime() - timeInit;
+
+		List<Result> results = new ArrayList<>(jobs.length);
+		for (Job job : jobs)
+			results.add(new Result(job));
+		lastStageBusyNanos = new long[Stage.values().length];
+		for (Stage stage : stages)
+			lastStageBusyNanos[stage.ordinal()] = busyNanos[stage.ordinal()].get();
+		lastElapsedNanos = elapsedNanos;
+		return results;
+	} // end run()
+
+	/**
+	 * @param stage A stage of the pipeline.
+	 * @return Time the workers of the stage spent working in the last run, summed over workers, in nanoseconds.
+	 */
+	public long getBusyNanos(Stage stage) {
+		return lastStageBusyNanos == null ? 0 : lastStageBusyNanos[stage.ordinal()];
+	} // end getBusyNanos()
+
+	/**
+	 * @return Wall clock time of the last run, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return lastElapsedNanos;
+	} // end getElapsedNanos()
+
+	/**
+	 * Takes jobs from the input queue until the end marker, processes them and passes them on. The last
+	 * worker of a stage to finish tells every worker of the next stage to finish.
+	 */
+	private void runWorker(Stage stage, BlockingQueue<Job> input, BlockingQueue<Job> output, AtomicInteger runningWorkers,
+			int numDownstreamWorkers, AtomicLong busyNanos) {
+		try {
+			while (true) {
+				Job job = input.take();
+				if (job == Job.END)
+					break;
+				long timeInit = System.nanoTime();
+				boolean succeeded;
+				try {
+					process(stage, job);
+					succeeded = true;
+				} catch (Exception | Error e) {
+					job.fail(stage, e);
+					succeeded = false;
+				}
+				busyNanos.addAndGet(System.nanoTime() - timeInit);
+				if (succeeded && output != null)
+					output.put(job);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// however this worker ends, the next stage must hear the end of its input, or its workers wait forever
+			if (runningWorkers.decrementAndGet() == 0 && output != null) {
+				try {
+					for (int w = 0; w < numDownstreamWorkers; w++)
+						output.put(Job.END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	} // end runWorker()
+
+	/**
+	 * Does the work of one stage on one image, dropping what the later stages no longer need.
+	 */
+	private void process(Stage stage, Job job) throws IOException {
+		switch (stage) {
+		case READ:
+			BufferedImage image = ImageIO.read(job.imageFile);
+			if (image == null)
+				throw new IOException("No image reader for " + job.imageFile);
+			job.imageHeight = image.getHeight();
+			job.imageWidth = image.getWidth();
+			job.sourcePixels = ImageManager.getGrayScaleValues(image, null);
+			break;
+		case TRANSFORM:
+			job.transformedImage = coder.transform(job.sourcePixels, job.imageHeight, job.imageWidth, null);
+			if (outputFormat != OutputFormat.PNG)
+				job.sourcePixels = null; // only kept to measure the PSNR
+			break;
+		case QUANTIZE:
+			job.encodedImage = coder.quantize(job.transformedImage, null);
+			job.transformedImage = null;
+			job.numBits = job.encodedImage.getEncodedData().size();
+			break;
+		case CHANNEL:
+			job.encodedImage = job.encodedImage.withEncodedData(channel.sendThroughChannel(job.encodedImage.getEncodedData(), job.random));
+			break;
+		case DECODE:
+			job.decodedPixels = coder.decodePixels(job.encodedImage, null);
+			job.psnr = Coder.computePSNR(job.sourcePixels, job.decodedPixels);
+			job.encodedImage = null;
+			job.sourcePixels = null;
+			break;
+		case WRITE:
+			File outputFile = new File(outputDirectory, job.outputName);
+			try {
+				if (outputFormat == OutputFormat.PNG) {
+					ImageIO.write(ImageManager.getBufferedImageFromGrayScaleValues(job.decodedPixels, job.imageHeight), "png", outputFile);
+					job.decodedPixels = null;
+				} else {
+					try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+						job.encodedImage.writeTo(output);
+					}
+					job.encodedImage = null;
+				}
+			} catch (IOException | RuntimeException | Error e) {
+				outputFile.delete(); // a partial file is not an output
+				throw e;
+			}
+			job.outputFile = outputFile;
+			job.completed = true;
+			break;
+		}
+	} // end process()
+
+	/**
+	 * @return The name of the file written for an image: its name with the extension of the output format.
+	 */
+	private String getOutputName(File imageFile) {
+		String name = imageFile.getName();
+		int extension = name.lastIndexOf('.');
+		String baseName = extension > 0 ? name.substring(0, extension) : name;
+		return baseName + (outputFormat == OutputFormat.PNG ? ".png" : BITSTREAM_EXTENSION);
+	} // end getOutputName()
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<File> imageFiles = new ArrayList<>();
+		File outputDirectory = null, coderFile = null;
+		double bitErrorRate = -1, burstLevel = 0;
+		int coderRate = 1;
+		OutputFormat outputFormat = OutputFormat.PNG;
+		int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		long seed = DEFAULT_SEED;
+		int[] parallelism = new int[Stage.values().length]; // 0 keeps the default
+		boolean valid = args.length % 2 == 0;
+		try {
+			for (int i = 0; valid && i + 1 < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-input":
+					for (String path : value.split(","))
+						addImageFiles(new File(path), imageFiles);
+					break;
+				case "-output": outputDirectory = new File(value); break;
+				case "-coder": coderFile = new File(value); break;
+				case "-ber": bitErrorRate = Double.parseDouble(value); break;
+				case "-burst": burstLevel = Double.parseDouble(value); break;
+				case "-rate": coderRate = Integer.parseInt(value); break;
+				case "-format": outputFormat = value.equals("bits") ? OutputFormat.BITSTREAM : OutputFormat.valueOf(value.toUpperCase(Locale.ROOT)); break;
+				case "-queue": queueCapacity = Integer.parseInt(value); break;
+				case "-seed": seed = Long.parseLong(value); break;
+				default:
+					Stage stage = null;
+					for (Stage candidate : Stage.values()) {
+						if (args[i].equals("-" + candidate.name().toLowerCase(Locale.ROOT)))
+							stage = candidate;
+					}
+					if (stage == null)
+						throw new IllegalArgumentException("Unknown option " + args[i]);
+					parallelism[stage.ordinal()] = Integer.parseInt(value);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			valid = false;
+		}
+		if (!valid || imageFiles.isEmpty() || outputDirectory == null || (coderFile == null && bitErrorRate < 0)) {
+			System.out.println("Usage: java BatchPipeline -input <dir or file>[,...] -output <dir> (-coder <file> | -ber <rate>)");
+			System.out.println("       [-burst <level>] [-rate <coder rate>] [-format png|bits] [-queue <images>] [-seed <seed>]");
+			System.out.println("       [-read N] [-transform N] [-quantize N] [-channel N] [-decode N] [-write N]");
+			System.exit(1);
+		}
+
+		Channel channel = bitErrorRate >= 0 ? new Channel(bitErrorRate, burstLevel) : null;
+		Coder coder;
+		if (coderFile != null) {
+			coder = CoderFile.read(coderFile.getPath());
+			coder.setCoderRate(coderRate);
+		} else {
+			coder = new CoderCache(1).getCoder(channel, coderRate);
+		}
+		outputDirectory.mkdirs();
+		BatchPipeline pipeline = new BatchPipeline(coder, outputDirectory);
+		pipeline.setChannel(channel);
+		pipeline.setOutputFormat(outputFormat);
+		pipeline.setQueueCapacity(queueCapacity);
+		pipeline.setSeed(seed);
+		for (Stage stage : Stage.values()) {
+			if (parallelism[stage.ordinal()] > 0)
+				pipeline.setParallelism(stage, parallelism[stage.ordinal()]);
+		}
+
+		List<Result> results = pipeline.run(imageFiles);
+		int numFailed = 0;
+		for (Result result : results) {
+			System.out.println(result);
+			if (!result.isSuccessful())
+				numFailed++;
+		}
+		double seconds = pipeline.getElapsedNanos() / 1e9;
+		System.out.printf("%d images (%d failed) in %.2f s, %.1f images/s%n", results.size(), numFailed, seconds, results.size() / seconds);
+		for (Stage stage : Stage.values()) {
+			if (pipeline.getBusyNanos(stage) > 0)
+				System.out.printf("  %-9s busy %7.2f s%n", stage, pipeline.getBusyNanos(stage) / 1e9);
+		}
+	}
+
+	/**
+	 * Adds a file, or every file in a directory in name order.
+	 */
+	private static void addImageFiles(File path, List<File> imageFiles) {
+		if (path.isDirectory()) {
+			File[] files = path.listFiles(File::isFile);
+			if (files != null) {
+				Arrays.sort(files);
+				imageFiles.addAll(Arrays.asList(files));
+			}
+		} else {
+			imageFiles.add(path);
+		}
+	} // end addImageFiles()
+
+	/**
+	 * One image on its way through the pipeline. Each stage fills in its output and clears what is no
+	 * longer needed, and the queues hand the job from one thread to the next.
+	 */
+	private static class Job {
+		private static final Job END = new Job(null, null); // tells a worker that its input is finished
+
+		private final File imageFile;
+		private final SplittableRandom random;
+		private String outputName;
+		private int imageHeight, imageWidth;
+		private double[] sourcePixels, decodedPixels;
+		private TransformedImage transformedImage;
+		private EncodedImage encodedImage;
+		private long numBits;
+		private double psnr = Double.NaN;
+		private File outputFile;
+		private boolean completed;
+		private Stage failedStage;
+		private Throwable error;
+
+		private Job(File imageFile, SplittableRandom random) {
+			this.imageFile = imageFile;
+			this.random = random;
+		}
+
+		private void fail(Stage stage, Throwable error) {
+			this.failedStage = stage;
+			this.error = error;
+			this.sourcePixels = null;
+			this.decodedPixels = null;
+			this.transformedImage = null;
+			this.encodedImage = null;
+		}
+	}
+
+	/**
+	 * The outcome of one image.
+	 */
+	public static class Result {
+
+		private final File imageFile, outputFile;
+		private final long numBits;
+		private final double psnr;
+		private final Stage failedStage;
+		private final Throwable error;
+
+
+		private Result(Job job) {
+			this.imageFile = job.imageFile;
+			this.outputFile = job.outputFile;
+			this.numBits = job.numBits;
+			this.psnr = job.psnr;
+			this.failedStage = job.completed ? null : job.failedStage;
+			this.error = job.error;
+		} // end constructor
+
+		public File getImageFile() {
+			return imageFile;
+		} // end imageFile accessor
+
+		/**
+		 * @return The file written for the image, or null if it failed.
+		 */
+		public File getOutputFile() {
+			return outputFile;
+		} // end outputFile accessor
+
+		public boolean isSuccessful() {
+			return outputFile != null && error == null;
+		} // end isSuccessful()
+
+		/**
+		 * @return Number of encoded bits.
+		 */
+		public long getNumBits() {
+			return numBits;
+		} // end numBits accessor
+
+		/**
+		 * @return PSNR of the decoded image in decibels, or NaN if it was not decoded.
+		 */
+		public double getPSNR() {
+			return psnr;
+		} // end getPSNR()
+
+		/**
+		 * @return The stage the image failed at, or null.
+		 */
+		public Stage getFailedStage() {
+			return failedStage;
+		} // end failedStage accessor
+
+		/**
+		 * @return Why the image failed, or null.
+		 */
+		public Throwable getError() {
+			return error;
+		} // end error accessor
+
+		@Override
+		public String toString() {
+			if (!isSuccessful())
+				return String.format("%-30s failed at %s: %s", imageFile.getName(), failedStage, error);
+			String quality = Double.isNaN(psnr) ? "" : String.format("  PSNR %7.3f dB", psnr);
+			return String.format("%-30s %10d bits%s  -> %s", imageFile.getName(), numBits, quality, outputFile.getName());
+		} // end toString()
+
+	}
+
+}
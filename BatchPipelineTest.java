@@ -0,0 +1,215 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+public class BatchPipelineTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int NUM_IMAGES = 12;
+	private static final int IMAGE_SIZE = 256;
+	private static final double BIT_ERROR_RATE = 0.01;
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("pipeline").toFile();
+		List<File> imageFiles = writeImages(directory);
+		File missingFile = new File(directory, "missing.png");
+		imageFiles.add(NUM_IMAGES / 2, missingFile); // must fail at READ without stopping the others
+		Channel channel = new Channel(BIT_ERROR_RATE, 0);
+		Coder coder = new Coder(TestFixtures.uniformCOSQs(channel), 1);
+
+		// the results must not depend on the number of threads or the size of the queues
+		List<Result> reference = null;
+		for (int[] config : new int[][] {{1, 1}, {3, 1}, {2, 4}}) {
+			int numThreads = config[0], queueCapacity = config[1];
+			File outputDirectory = new File(directory, "png-" + numThreads + "-" + queueCapacity);
+			outputDirectory.mkdirs();
+			BatchPipeline pipeline = new BatchPipeline(coder, outputDirectory);
+			pipeline.setChannel(channel);
+			pipeline.setQueueCapacity(queueCapacity);
+			for (BatchPipeline.Stage stage : BatchPipeline.Stage.values())
+				pipeline.setParallelism(stage, numThreads);
+			List<Result> results = new ArrayList<>();
+			for (BatchPipeline.Result result : pipeline.run(imageFiles))
+				results.add(new Result(result));
+			if (reference == null)
+				reference = results;
+			System.out.printf("%d threads per stage, queues of %d: %s, %.1f images/s%n", numThreads, queueCapacity,
+					results.equals(reference) ? "same results" : "DIFFERENT RESULTS", results.size() / (pipeline.getElapsedNanos() / 1e9));
+		}
+		BatchPipeline.Result failed = new BatchPipeline(coder, directory).run(List.of(missingFile)).get(0);
+		System.out.println("Missing file: " + (!failed.isSuccessful() && failed.getFailedStage() == BatchPipeline.Stage.READ ? "failed at READ" : "NOT REPORTED"));
+
+		// an Error thrown for one image must fail only that image, not hang the pipeline
+		AtomicInteger numTransforms = new AtomicInteger();
+		Coder failingCoder = new Coder(TestFixtures.uniformCOSQs(channel), 1) {
+			@Override
+			public TransformedImage transform(double[] pixels, int imageHeight, int imageWidth, ExecutorService executor) {
+				if (numTransforms.incrementAndGet() == 3)
+					throw new AssertionError("transform failed");
+				return super.transform(pixels, imageHeight, imageWidth, executor);
+			}
+		};
+		File errorDirectory = new File(directory, "error");
+		errorDirectory.mkdirs();
+		BatchPipeline errorPipeline = new BatchPipeline(failingCoder, errorDirectory);
+		errorPipeline.setParallelism(BatchPipeline.Stage.TRANSFORM, 1);
+		errorPipeline.setQueueCapacity(1);
+		List<List<BatchPipeline.Result>> errorResults = new ArrayList<>();
+		Thread runner = new Thread(() -> {
+			try {
+				errorResults.add(errorPipeline.run(imageFiles.subList(0, NUM_IMAGES / 2)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		runner.setDaemon(true);
+		runner.start();
+		runner.join(TIMEOUT_MILLIS);
+		if (runner.isAlive()) {
+			System.out.println("Error in a stage: PIPELINE HUNG");
+		} else {
+			int numSucceeded = 0, numFailedAtTransform = 0;
+			for (BatchPipeline.Result result : errorResults.get(0)) {
+				if (result.isSuccessful())
+					numSucceeded++;
+				else if (result.getFailedStage() == BatchPipeline.Stage.TRANSFORM && result.getError() instanceof AssertionError)
+					numFailedAtTransform++;
+			}
+			System.out.println("Error in a stage: " + numFailedAtTransform + " image failed at TRANSFORM (expected 1), "
+					+ numSucceeded + " succeeded (expected " + (NUM_IMAGES / 2 - 1) + ")");
+		}
+
+		// inputs that would write the same output: the first one wins, the others fail instead of overwriting it
+		File otherDirectory = new File(directory, "other");
+		otherDirectory.mkdirs();
+		File sameName = new File(otherDirectory, imageFiles.get(0).getName());
+		File otherExtension = new File(directory, "IMAGE00.gif");
+		Files.copy(imageFiles.get(1).toPath(), sameName.toPath());
+		Files.copy(imageFiles.get(2).toPath(), otherExtension.toPath());
+		File duplicateDirectory = new File(directory, "duplicates");
+		duplicateDirectory.mkdirs();
+		List<BatchPipeline.Result> duplicateResults = new BatchPipeline(coder, duplicateDirectory).run(List.of(imageFiles.get(0), sameName, otherExtension));
+		boolean firstWritten = duplicateResults.get(0).isSuccessful() && Coder.computePSNR(
+				ImageManager.getGrayScaleValues(ImageIO.read(imageFiles.get(0)), null),
+				ImageManager.getGrayScaleValues(ImageIO.read(duplicateResults.get(0).getOutputFile()), null)) > 20;
+		int numRejected = 0;
+		for (BatchPipeline.Result result : duplicateResults.subList(1, 3)) {
+			if (!result.isSuccessful() && result.getFailedStage() == BatchPipeline.Stage.WRITE && result.getOutputFile() == null)
+				numRejected++;
+		}
+		System.out.println("Duplicate output names: first image written " + firstWritten + ", " + numRejected + " rejected (expected 2), "
+				+ duplicateDirectory.list().length + " file written (expected 1)");
+
+		// a write that fails part way leaves no file and no output in the result
+		Coder failingWriteCoder = new Coder(TestFixtures.uniformCOSQs(channel), 1) {
+			@Override
+			public EncodedImage quantize(TransformedImage transformedImage, ExecutorService executor) {
+				EncodedImage encodedImage = super.quantize(transformedImage, executor);
+				return new EncodedImage(encodedImage.getEncodedData(), encodedImage.getStatistics(), encodedImage.getImageHeight(),
+						encodedImage.getImageWidth()) {
+					@Override
+					public void writeTo(DataOutput output) throws IOException {
+						output.writeInt(getImageHeight());
+						throw new IOException("disk full");
+					}
+				};
+			}
+		};
+		File partialDirectory = new File(directory, "partial");
+		partialDirectory.mkdirs();
+		BatchPipeline partialPipeline = new BatchPipeline(failingWriteCoder, partialDirectory);
+		partialPipeline.setOutputFormat(BatchPipeline.OutputFormat.BITSTREAM);
+		BatchPipeline.Result partial = partialPipeline.run(imageFiles.subList(0, 1)).get(0);
+		System.out.println("Failed write: " + (!partial.isSuccessful() && partial.getFailedStage() == BatchPipeline.Stage.WRITE ? "failed at WRITE" : "NOT REPORTED")
+				+ ", output file " + partial.getOutputFile() + " (expected null), " + partialDirectory.list().length + " files left (expected 0)");
+
+		// the pipeline without a channel must match Coder.encode and decodePixels image by image
+		File outputDirectory = new File(directory, "bits");
+		outputDirectory.mkdirs();
+		BatchPipeline pipeline = new BatchPipeline(coder, outputDirectory);
+		pipeline.setOutputFormat(BatchPipeline.OutputFormat.BITSTREAM);
+		int mismatches = 0;
+		for (BatchPipeline.Result result : pipeline.run(imageFiles.subList(0, NUM_IMAGES / 2))) {
+			double[] pixels = ImageManager.getGrayScaleValues(ImageIO.read(result.getImageFile()), null);
+			EncodedImage expected = coder.encode(pixels, IMAGE_SIZE, IMAGE_SIZE, null);
+			EncodedImage written;
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(result.getOutputFile())))) {
+				written = EncodedImage.readFrom(input);
+			}
+			if (!written.getEncodedData().equals(expected.getEncodedData()) || written.getImageHeight() != IMAGE_SIZE
+					|| Coder.computePSNR(pixels, coder.decodePixels(written, null)) != Coder.computePSNR(pixels, coder.decodePixels(expected, null)))
+				mismatches++;
+		}
+		System.out.println("Bitstreams: " + mismatches + " mismatches with Coder.encode");
+
+		// with a channel, each image uses the generator split from the seed in input order
+		SplittableRandom seeds = new SplittableRandom(123456789);
+		mismatches = 0;
+		for (int index = 0; index < imageFiles.size(); index++) {
+			SplittableRandom random = seeds.split();
+			if (imageFiles.get(index) == missingFile)
+				continue;
+			double[] pixels = ImageManager.getGrayScaleValues(ImageIO.read(imageFiles.get(index)), null);
+			EncodedImage encodedImage = coder.encode(pixels, IMAGE_SIZE, IMAGE_SIZE, null);
+			encodedImage = encodedImage.withEncodedData(channel.sendThroughChannel(encodedImage.getEncodedData(), random));
+			if (Coder.computePSNR(pixels, coder.decodePixels(encodedImage, null)) != reference.get(index).psnr)
+				mismatches++;
+		}
+		System.out.println("Channel: " + mismatches + " PSNR mismatches with a sequential run");
+	}
+
+	private static List<File> writeImages(File directory) throws IOException {
+		List<File> imageFiles = new ArrayList<>();
+		for (int n = 0; n < NUM_IMAGES; n++) {
+			File imageFile = new File(directory, String.format("image%02d.png", n));
+			ImageIO.write(TestFixtures.syntheticGrayImage(IMAGE_SIZE, IMAGE_SIZE, RNG_SEED + n), "png", imageFile);
+			imageFiles.add(imageFile);
+		}
+		return imageFiles;
+	}
+
+	/**
+	 * The parts of a pipeline result that must not depend on the configuration.
+	 */
+	private static class Result {
+		private final String outputName;
+		private final long numBits;
+		private final double psnr;
+		private final BatchPipeline.Stage failedStage;
+
+		private Result(BatchPipeline.Result result) {
+			this.outputName = result.getOutputFile() == null ? null : result.getOutputFile().getName();
+			this.numBits = result.getNumBits();
+			this.psnr = result.getPSNR();
+			this.failedStage = result.getFailedStage();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Result))
+				return false;
+			Result other = (Result) obj;
+			return Objects.equals(outputName, other.outputName) && numBits == other.numBits
+					&& Double.compare(psnr, other.psnr) == 0 && failedStage == other.failedStage;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(outputName, numBits, psnr, failedStage);
+		}
+	}
+
+}
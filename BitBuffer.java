@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable sequence of bits packed into a long[]. Bit i of the stream is stored in
+ * word i / 64 at bit position i % 64 (least significant bit first). Values appended with
+ * append(long, int) are written most significant bit first, matching the binary form
+ * produced by COSQ.
+ */
+public class BitBuffer {
+
+	private static final int WORD_SIZE = 64;
+	private static final int DEFAULT_CAPACITY = 1024; // in bits
+
+	private long[] words;
+	private long size; // number of bits written
+
+
+	public BitBuffer() {
+		this(DEFAULT_CAPACITY);
+	} // end default constructor
+
+	/**
+	 * @param initialCapacity Number of bits the buffer can hold before it has to grow.
+	 */
+	public BitBuffer(long initialCapacity) {
+		this.words = new long[numWordsFor(Math.max(initialCapacity, WORD_SIZE))];
+		this.size = 0;
+	} // end capacity constructor
+
+	/**
+	 * Creates a BitBuffer from a List of Bytes, where each element is either 0 or 1.
+	 * @param bits List of Bytes, representing the bit stream.
+	 * @return A BitBuffer holding the same bits.
+	 */
+	public static BitBuffer fromList(List<Byte> bits) {
+		BitBuffer buffer = new BitBuffer(bits.size());
+		for (Byte bit : bits)
+			buffer.appendBit(bit);
+		return buffer;
+	} // end fromList()
+
+	/**
+	 * @return The number of bits in the buffer.
+	 */
+	public long size() {
+		return size;
+	} // end size accessor
+
+	/**
+	 * Appends a single bit.
+	 * @param bit The bit to append, only the lowest bit is used.
+	 */
+	public void appendBit(int bit) {
+		ensureCapacity(size + 1);
+		if ((bit & 1) != 0)
+			words[(int) (size >>> 6)] |= 1L << (size & 63);
+		size++;
+	} // end appendBit()
+
+	/**
+	 * Appends the lowest numBits bits of value, most significant bit first.
+	 * @param value The value to append.
+	 * @param numBits Number of bits to write, between 0 and 64.
+	 */
+	public void append(long value, int numBits) {
+		if (numBits == 0)
+			return;
+		ensureCapacity(size + numBits);
+		long reversed = Long.reverse(value) >>> (WORD_SIZE - numBits); // first bit to write is now the lowest
+		int wordIndex = (int) (size >>> 6);
+		int offset = (int) (size & 63);
+		words[wordIndex] |= reversed << offset;
+		if (offset != 0 && offset + numBits > WORD_SIZE)
+			words[wordIndex + 1] |= reversed >>> (WORD_SIZE - offset);
+		size += numBits;
+	} // end append()
+
+	/**
+	 * Appends every bit of another buffer.
+	 * @param other The buffer to append.
+	 */
+	public void append(BitBuffer other) {
+		ensureCapacity(size + other.size);
+		long position = 0;
+		while (position < other.size) {
+			int numBits = (int) Math.min(WORD_SIZE, other.size - position);
+			append(other.read(position, numBits), numBits);
+			position += numBits;
+		}
+	} // end append(BitBuffer)
+
+	/**
+	 * @param index Position of the bit in the stream.
+	 * @return The bit, as 0 or 1.
+	 */
+	public int getBit(long index) {
+		checkRange(index, 1);
+		return (int) ((words[(int) (index >>> 6)] >>> (index & 63)) & 1);
+	} // end getBit()
+
+	/**
+	 * Flips the bit at the given position.
+	 * @param index Position of the bit in the stream.
+	 */
+	public void flipBit(long index) {
+		checkRange(index, 1);
+		words[(int) (index >>> 6)] ^= 1L << (index & 63);
+	} // end flipBit()
+
+	/**
+	 * Flips every bit in a range, a whole word at a time.
+	 * @param fromIndex Position of the first bit to flip.
+	 * @param toIndex Position after the last bit to flip.
+	 */
+	public void flipBits(long fromIndex, long toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("Bits [" + fromIndex + ", " + toIndex + ") out of range for size " + size);
+		if (fromIndex == toIndex)
+			return;
+		int firstWord = (int) (fromIndex >>> 6);
+		int lastWord = (int) ((toIndex - 1) >>> 6);
+		long firstMask = -1L << (fromIndex & 63);
+		long lastMask = -1L >>> (-toIndex & 63);
+		if (firstWord == lastWord) {
+			words[firstWord] ^= firstMask & lastMask;
+			return;
+		}
+		words[firstWord] ^= firstMask;
+		for (int i = firstWord + 1; i < lastWord; i++)
+			words[i] = ~words[i];
+		words[lastWord] ^= lastMask;
+	} // end flipBits()
+
+	/**
+	 * Flips the bits of one 64-bit word of the stream where the mask is set. Bit k of the mask is
+	 * the bit at position 64 * wordIndex + k; mask bits past the end of the stream are ignored.
+	 * @param wordIndex Index of the word.
+	 * @param mask The bits to flip.
+	 */
+	public void xorWord(long wordIndex, long mask) {
+		if (mask == 0)
+			return;
+		long position = wordIndex << 6;
+		if (wordIndex < 0 || position >= size)
+			throw new IndexOutOfBoundsException("Word " + wordIndex + " out of range for size " + size);
+		if (size - position < WORD_SIZE)
+			mask &= -1L >>> (WORD_SIZE - (size - position));
+		words[(int) wordIndex] ^= mask;
+	} // end xorWord()
+
+	/**
+	 * Reads numBits bits starting at position, the first bit read being the most significant.
+	 * This is the inverse of append(long, int).
+	 * @param position Position of the first bit.
+	 * @param numBits Number of bits to read, between 0 and 64.
+	 * @return The value that was read.
+	 */
+	public long read(long position, int numBits) {
+		if (numBits == 0)
+			return 0;
+		checkRange(position, numBits);
+		int wordIndex = (int) (position >>> 6);
+		int offset = (int) (position & 63);
+		long reversed = words[wordIndex] >>> offset;
+		if (offset != 0 && offset + numBits > WORD_SIZE)
+			reversed |= words[wordIndex + 1] << (WORD_SIZE - offset);
+		return Long.reverse(reversed) >>> (WORD_SIZE - numBits);
+	} // end read()
+
+	/**
+	 * @return A new BitReader positioned at the start of this buffer.
+	 */
+	public BitReader reader() {
+		return new BitReader(this, 0);
+	} // end reader()
+
+	/**
+	 * @return An independent copy of this buffer.
+	 */
+	public BitBuffer copy() {
+		BitBuffer copy = new BitBuffer(size);
+		System.arraycopy(words, 0, copy.words, 0, numWordsFor(size));
+		copy.size = size;
+		return copy;
+	} // end copy()
+
+	/**
+	 * Converts the buffer to the List of Bytes form used by the older API.
+	 * @return ArrayList of Bytes, each either 0 or 1.
+	 */
+	public List<Byte> toList() {
+		List<Byte> bits = new ArrayList<Byte>((int) size);
+		for (long i = 0; i < size; i++)
+			bits.add((byte) getBit(i));
+		return bits;
+	} // end toList()
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof BitBuffer))
+			return false;
+		BitBuffer other = (BitBuffer) obj;
+		int numWords = numWordsFor(size);
+		return size == other.size && Arrays.equals(words, 0, numWords, other.words, 0, numWords);
+	} // end equals()
+
+	@Override
+	public int hashCode() {
+		int hash = Long.hashCode(size);
+		for (int i = 0; i < numWordsFor(size); i++)
+			hash = 31 * hash + Long.hashCode(words[i]);
+		return hash;
+	} // end hashCode()
+
+	private void ensureCapacity(long numBits) {
+		int numWords = numWordsFor(numBits);
+		if (numWords > words.length)
+			words = Arrays.copyOf(words, Math.max(numWords, 2 * words.length));
+	} // end ensureCapacity()
+
+	private void checkRange(long position, int numBits) {
+		if (position < 0 || numBits < 0 || numBits > WORD_SIZE || position + numBits > size)
+			throw new IndexOutOfBoundsException("Bits [" + position + ", " + (position + numBits) + ") out of range for size " + size);
+	} // end checkRange()
+
+	private static int numWordsFor(long numBits) {
+		return (int) ((numBits + WORD_SIZE - 1) >>> 6);
+	} // end numWordsFor()
+
+}
@@ -0,0 +1,45 @@
+import java.util.List;
+import java.util.Random;
+
+public class BitBufferTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int NUM_VALUES = 100000;
+
+	public static void main(String[] args) {
+		Random randomNumberGenerator = new Random(RNG_SEED);
+		int[] values = new int[NUM_VALUES];
+		int[] lengths = new int[NUM_VALUES];
+		BitBuffer buffer = new BitBuffer();
+		for (int i = 0; i < NUM_VALUES; i++) {
+			lengths[i] = 1 + randomNumberGenerator.nextInt(16);
+			values[i] = randomNumberGenerator.nextInt(1 << lengths[i]);
+			buffer.append(values[i], lengths[i]);
+		}
+
+		// read back with a cursor
+		BitReader reader = buffer.reader();
+		int mismatches = 0;
+		for (int i = 0; i < NUM_VALUES; i++) {
+			if (reader.read(lengths[i]) != values[i])
+				mismatches++;
+		}
+		System.out.println("Read mismatches: " + mismatches + ", bits remaining: " + reader.remaining());
+
+		// round trip through the List<Byte> adapter
+		List<Byte> bitList = buffer.toList();
+		System.out.println("List round trip equal: " + BitBuffer.fromList(bitList).equals(buffer));
+
+		// concatenation must match appending the bits one at a time
+		BitBuffer first = new BitBuffer();
+		first.append(0b101, 3);
+		BitBuffer concatenated = first.copy();
+		concatenated.append(buffer);
+		BitBuffer expected = new BitBuffer();
+		expected.append(0b101, 3);
+		for (Byte bit : bitList)
+			expected.appendBit(bit);
+		System.out.println("Concatenation equal: " + concatenated.equals(expected));
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * A read cursor over a BitBuffer. Several readers can share one buffer, each with its own position.
+ */
+public class BitReader {
+
+	private final BitBuffer buffer;
+	private long position;
+
+
+	/**
+	 * @param buffer The buffer to read from.
+	 * @param position Position of the first bit to be read.
+	 */
+	public BitReader(BitBuffer buffer, long position) {
+		this.buffer = buffer;
+		this.position = position;
+	} // end constructor
+
+	/**
+	 * @return The next bit, as 0 or 1.
+	 */
+	public int readBit() {
+		return buffer.getBit(position++);
+	} // end readBit()
+
+	/**
+	 * Reads the next numBits bits as an unsigned integer, most significant bit first.
+	 * @param numBits Number of bits to read, between 0 and 31.
+	 * @return The value that was read.
+	 */
+	public int read(int numBits) {
+		int value = (int) buffer.read(position, numBits);
+		position += numBits;
+		return value;
+	} // end read()
+
+	/**
+	 * Moves the cursor forward without reading.
+	 * @param numBits Number of bits to skip.
+	 */
+	public void skip(long numBits) {
+		position += numBits;
+	} // end skip()
+
+	public long getPosition() {
+		return position;
+	} // end position accessor
+
+	public void setPosition(long position) {
+		this.position = position;
+	} // end position mutator
+
+	/**
+	 * @return Number of bits left between the cursor and the end of the buffer.
+	 */
+	public long remaining() {
+		return buffer.size() - position;
+	} // end remaining()
+
+}
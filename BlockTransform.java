@@ -0,0 +1,26 @@
+/**
+ * An in-place two-dimensional DCT of one BLOCK_SIZE by BLOCK_SIZE block in row-major form, with the
+ * orthonormal scaling of DoubleDCT_2D when its scale flag is set. Implementations keep scratch space,
+ * so each thread needs its own instance.
+ */
+public interface BlockTransform {
+
+	/**
+	 * Replaces the pixels of a block with its DCT coefficients.
+	 * @param block The block, in row-major form.
+	 */
+	void forward(double[] block);
+
+	/**
+	 * Replaces the DCT coefficients of a block with its pixels.
+	 * @param block The block, in row-major form.
+	 */
+	void inverse(double[] block);
+
+	/**
+	 * @return Whether forward() computes every coefficient. Otherwise only the coefficients the
+	 * transform was built for are valid and the rest are zero.
+	 */
+	boolean computesAllCoefficients();
+
+}
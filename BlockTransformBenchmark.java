@@ -0,0 +1,111 @@
+import java.util.Random;
+
+/**
+ * Compares the pruned block DCT with JTransforms, for accuracy and for speed. The pruned transform
+ * keeps the coefficients of the fixed bit allocation, and its inverse is given blocks in which the
+ * dropped coefficients share one value, as they do in the decoder.
+ */
+public class BlockTransformBenchmark {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int NUM_BLOCKS = 1 << 16;
+	private static final int NUM_RUNS = 5;
+	private static final int IMAGE_SIZE = 2048;
+
+	public static void main(String[] args) {
+		Coder coder = new Coder(TestFixtures.uniformCOSQs(null), 1);
+		int blockSize = Coder.getBlockSize();
+		int blockArea = blockSize * blockSize;
+		coder.setTransformType(Coder.TransformType.PRUNED);
+		BlockTransform pruned = coder.newBlockTransform();
+		BlockTransform full = new JTransformsBlockTransform(blockSize);
+		int[][] bitAllocation = Coder.getBitAllocation();
+		Random randomNumberGenerator = new Random(RNG_SEED);
+
+		double[] pixels = new double[NUM_BLOCKS * blockArea];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = 128 + 64 * randomNumberGenerator.nextGaussian();
+		double[] coefficients = new double[pixels.length];
+		for (int block = 0; block < NUM_BLOCKS; block++) {
+			double fill = randomNumberGenerator.nextGaussian();
+			for (int index = 0; index < blockArea; index++) {
+				boolean kept = index == 0 || bitAllocation[index / blockSize][index % blockSize] != 0;
+				coefficients[block * blockArea + index] = kept ? 100 * randomNumberGenerator.nextGaussian() : fill;
+			}
+		}
+
+		// accuracy: the kept coefficients and the rebuilt pixels must agree with JTransforms
+		double[] expected = new double[blockArea], actual = new double[blockArea];
+		double maxForwardError = 0, maxInverseError = 0;
+		for (int block = 0; block < NUM_BLOCKS; block++) {
+			System.arraycopy(pixels, block * blockArea, expected, 0, blockArea);
+			System.arraycopy(pixels, block * blockArea, actual, 0, blockArea);
+			full.forward(expected);
+			pruned.forward(actual);
+			for (int index = 0; index < blockArea; index++) {
+				if (index == 0 || bitAllocation[index / blockSize][index % blockSize] != 0)
+					maxForwardError = Math.max(maxForwardError, Math.abs(expected[index] - actual[index]));
+			}
+			System.arraycopy(coefficients, block * blockArea, expected, 0, blockArea);
+			System.arraycopy(coefficients, block * blockArea, actual, 0, blockArea);
+			full.inverse(expected);
+			pruned.inverse(actual);
+			for (int index = 0; index < blockArea; index++)
+				maxInverseError = Math.max(maxInverseError, Math.abs(expected[index] - actual[index]));
+		}
+		System.out.println("Largest forward error: " + maxForwardError + ", largest inverse error: " + maxInverseError);
+
+		// speed, in nanoseconds per block
+		for (BlockTransform transform : new BlockTransform[] {full, pruned}) {
+			long forwardTime = Long.MAX_VALUE, inverseTime = Long.MAX_VALUE;
+			double[] block = new double[blockArea];
+			double checksum = 0;
+			for (int run = 0; run < NUM_RUNS; run++) {
+				long timeInit = System.nanoTime();
+				for (int b = 0; b < NUM_BLOCKS; b++) {
+					System.arraycopy(pixels, b * blockArea, block, 0, blockArea);
+					transform.forward(block);
+					checksum += block[0];
+				}
+				forwardTime = Math.min(forwardTime, System.nanoTime() - timeInit);
+				timeInit = System.nanoTime();
+				for (int b = 0; b < NUM_BLOCKS; b++) {
+					System.arraycopy(coefficients, b * blockArea, block, 0, blockArea);
+					transform.inverse(block);
+					checksum += block[0];
+				}
+				inverseTime = Math.min(inverseTime, System.nanoTime() - timeInit);
+			}
+			System.out.printf("%-26s forward %6.1f ns/block, inverse %6.1f ns/block (checksum %.3g)%n", transform.getClass().getName(),
+					(double) forwardTime / NUM_BLOCKS, (double) inverseTime / NUM_BLOCKS, checksum);
+		}
+
+		// the whole coder with each transform
+		double[][] image = TestFixtures.syntheticImage(IMAGE_SIZE, IMAGE_SIZE, RNG_SEED);
+		double[] sourceVals = ImageManager.toRowMajor(image);
+		EncodedImage reference = null;
+		for (Coder.TransformType type : Coder.TransformType.values()) {
+			coder.setTransformType(type);
+			EncodedImage encodedImage = null;
+			double[] decodedPixels = null;
+			long encodeTime = Long.MAX_VALUE, decodeTime = Long.MAX_VALUE;
+			for (int run = 0; run < NUM_RUNS; run++) {
+				long timeInit = System.nanoTime();
+				encodedImage = coder.encode(image);
+				encodeTime = Math.min(encodeTime, System.nanoTime() - timeInit);
+				timeInit = System.nanoTime();
+				decodedPixels = coder.decodePixels(encodedImage, null);
+				decodeTime = Math.min(decodeTime, System.nanoTime() - timeInit);
+			}
+			if (reference == null)
+				reference = encodedImage;
+			long differingBits = 0;
+			for (long i = 0; i < reference.getEncodedData().size(); i++)
+				differingBits += reference.getEncodedData().getBit(i) ^ encodedImage.getEncodedData().getBit(i);
+			System.out.printf("%-12s encode %4d ms, decode %4d ms, PSNR %.6f dB, %d bits differ from %s%n", type,
+					encodeTime / 1000000, decodeTime / 1000000, Coder.computePSNR(sourceVals, decodedPixels), differingBits,
+					Coder.TransformType.values()[0]);
+		}
+	}
+
+}
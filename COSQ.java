@@ -1,4 +1,9 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,42 +12,190 @@ public class COSQ implements java.io.Serializable {
 
 	private static final long serialVersionUID = 1L; // for serialization
 
-	private Map<Double, List<Byte>> encoderMap = new HashMap<>();
-	private Map<List<Byte>, Double> decoderMap = new HashMap<>();
+	// the serialized form is kept as the original pair of maps so existing coder files still load
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("encoderMap", Map.class),
+			new ObjectStreamField("decoderMap", Map.class),
+			new ObjectStreamField("partitionThresholds", double[].class), // absent in older files
+			new ObjectStreamField("partitionIndices", int[].class)
+	};
+
+	// decoder codebook: the reconstruction value of each index
+	private double[] codeWords;
+
+	// encoder codebook: distinct codewords in ascending order, and the index each one is sent as
+	private double[] sortedCodeWords;
+	private int[] sortedIndices;
+	private int numBits;
+
+	// channel-optimized encoding regions, or null to encode to the nearest codeword
+	private ChannelOptimizedPartition partition;
 
 
 	public COSQ(List<Double> codeWords) {
-		int numBits = (int) (Math.log(codeWords.size())/Math.log(2));
-		for (int i = 0; i < codeWords.size(); i++) {
-			List<Byte> binaryIndex = convertToBinary(i, numBits);
-			encoderMap.put(codeWords.get(i), binaryIndex);
-			decoderMap.put(binaryIndex, codeWords.get(i));
-		}
+		this.numBits = (int) (Math.log(codeWords.size())/Math.log(2));
+		this.codeWords = new double[codeWords.size()];
+		for (int i = 0; i < codeWords.size(); i++)
+			this.codeWords[i] = codeWords.get(i);
+		buildEncoderTable(codeWords);
 	} // end constructor
 	
 	/**
-	 * Finds the closest key in the map to the sourceWord, then returns what that key maps to.
+	 * @param codeWords Codewords in index order.
+	 */
+	public COSQ(double[] codeWords) {
+		this(toList(codeWords));
+	} // end array constructor
+
+	/**
+	 * Creates a COSQ that encodes with the generalized nearest neighbour condition for a channel,
+	 * so each source word is sent with the index of least expected distortion.
+	 * @param codeWords Codewords in index order.
+	 * @param channel The channel the codewords were trained for.
+	 */
+	public COSQ(List<Double> codeWords, Channel channel) {
+		this(codeWords);
+		this.partition = new ChannelOptimizedPartition(this.codeWords, channel);
+	} // end channel constructor
+
+	/**
+	 * @param codeWords Codewords in index order.
+	 * @param partition The encoding regions, or null to encode to the nearest codeword.
+	 */
+	public COSQ(double[] codeWords, ChannelOptimizedPartition partition) {
+		this(codeWords);
+		this.partition = partition;
+	} // end partition constructor
+
+	/**
+	 * Finds the closest codeword to the sourceWord, then returns its index in binary form.
 	 * @param sourceWord The source word that is to be encoded.
 	 * @return A List<Byte> which represents a binary number.
 	 */
 	public List<Byte> encodeSourceWord(double sourceWord) {
-		Double bestKey = null;
-		for (Double key : encoderMap.keySet()) {
-			if (bestKey == null || Math.abs(key - sourceWord) < Math.abs(bestKey - sourceWord))
-				bestKey = key;
-		}
-		return encoderMap.get(bestKey);
+		return convertToBinary(encodeIndex(sourceWord), numBits);
 	} // end encodeSourceWord()
-	
+
+	/**
+	 * Encodes a source word and appends its binary index to a bit stream.
+	 * @param sourceWord The source word that is to be encoded.
+	 * @param encodedData The bit stream the index is appended to.
+	 */
+	public void encodeSourceWord(double sourceWord, BitBuffer encodedData) {
+		encodedData.append(encodeIndex(sourceWord), numBits);
+	} // end encodeSourceWord(double, BitBuffer)
+
+	/**
+	 * Finds the index to send for the sourceWord. With a channel-optimized partition this is the
+	 * index of least expected distortion, otherwise the index of the closest codeword. Either way
+	 * it is a binary search; ties between two codewords go to the smaller codeword.
+	 * @param sourceWord The source word that is to be encoded.
+	 * @return Index of the codeword to send.
+	 */
+	public int encodeIndex(double sourceWord) {
+		if (partition != null)
+			return partition.encodeIndex(sourceWord);
+		int position = Arrays.binarySearch(sortedCodeWords, sourceWord);
+		if (position >= 0)
+			return sortedIndices[position];
+		int upper = -position - 1; // first codeword greater than the source word
+		if (upper == 0)
+			return sortedIndices[0];
+		if (upper == sortedCodeWords.length)
+			return sortedIndices[upper - 1];
+		if (sourceWord - sortedCodeWords[upper - 1] <= sortedCodeWords[upper] - sourceWord)
+			return sortedIndices[upper - 1];
+		return sortedIndices[upper];
+	} // end encodeIndex()
+
 	/**
 	 * Decodes a codeword.
 	 * @param codeWord The codeword that is to be decoded.
 	 * @return A double which can then be fed into the inverse DCT.
 	 */
 	public double decodeCodeWord(List<Byte> codeWord) {
-		return decoderMap.get(codeWord);
+		return codeWords[convertFromBinary(codeWord)];
 	} // end decodeCodeWord()
+
+	/**
+	 * Reads a codeword from a bit stream and decodes it.
+	 * @param encodedData Bit stream positioned at the start of the codeword.
+	 * @return A double which can then be fed into the inverse DCT.
+	 */
+	public double decodeCodeWord(BitReader encodedData) {
+		return codeWords[encodedData.read(numBits)];
+	} // end decodeCodeWord(BitReader)
 	
+	/**
+	 * Decodes a codeword given as an integer index.
+	 * @param index The index that is to be decoded.
+	 * @return A double which can then be fed into the inverse DCT.
+	 */
+	public double decodeIndex(int index) {
+		return codeWords[index];
+	} // end decodeIndex()
+
+	/**
+	 * @return A copy of the codewords, in index order.
+	 */
+	public double[] getCodeWords() {
+		return codeWords.clone();
+	} // end getCodeWords()
+	
+	/**
+	 * @return The channel-optimized encoding regions, or null if the COSQ encodes to the nearest codeword.
+	 */
+	public ChannelOptimizedPartition getPartition() {
+		return partition;
+	} // end getPartition()
+
+	/**
+	 * @return The encoding regions of the COSQ: the channel-optimized partition if there is one,
+	 * otherwise the nearest codeword regions, split halfway between neighbouring codewords.
+	 */
+	public ChannelOptimizedPartition getEncodingRegions() {
+		if (partition != null)
+			return partition;
+		double[] midpoints = new double[sortedCodeWords.length - 1];
+		for (int r = 0; r < midpoints.length; r++)
+			midpoints[r] = (sortedCodeWords[r] + sortedCodeWords[r + 1]) / 2;
+		return new ChannelOptimizedPartition(midpoints, sortedIndices);
+	} // end getEncodingRegions()
+
+	/**
+	 * @return The number of bits in each codeword.
+	 */
+	public int getNumBits() {
+		return numBits;
+	} // end getNumBits()
+
+	/**
+	 * Builds the sorted encoder codebook. When a codeword appears more than once, the highest
+	 * index is kept, as the previous Map based encoder did.
+	 * @param codeWords Codewords in index order.
+	 */
+	private void buildEncoderTable(List<Double> codeWords) {
+		Integer[] order = new Integer[codeWords.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (x, y) -> codeWords.get(x).equals(codeWords.get(y)) ?
+				Integer.compare(x, y) : Double.compare(codeWords.get(x), codeWords.get(y)));
+
+		double[] codeWordBuffer = new double[order.length];
+		int[] indexBuffer = new int[order.length];
+		int numDistinct = 0;
+		for (int i = 0; i < order.length; i++) {
+			double codeWord = codeWords.get(order[i]);
+			if (numDistinct > 0 && codeWordBuffer[numDistinct - 1] == codeWord)
+				numDistinct--; // overwrite the lower index of a repeated codeword
+			codeWordBuffer[numDistinct] = codeWord;
+			indexBuffer[numDistinct] = order[i];
+			numDistinct++;
+		}
+		sortedCodeWords = Arrays.copyOf(codeWordBuffer, numDistinct);
+		sortedIndices = Arrays.copyOf(indexBuffer, numDistinct);
+	} // end buildEncoderTable()
+
 	/**
 	 * Converts an integer to binary form, represented as an ArrayList of Bytes.
 	 * @param num Integer to be converted.
@@ -59,5 +212,54 @@ public class COSQ implements java.io.Serializable {
 		}
 		return binaryForm;
 	} // end convertToBinary()
-	
+
+	/**
+	 * Converts a binary form back to an integer.
+	 * @param binaryForm Binary form, most significant bit first.
+	 * @return The integer it represents.
+	 */
+	private static int convertFromBinary(List<Byte> binaryForm) {
+		int num = 0;
+		for (Byte bit : binaryForm)
+			num = (num << 1) | bit;
+		return num;
+	} // end convertFromBinary()
+
+	private static List<Double> toList(double[] values) {
+		List<Double> list = new ArrayList<>(values.length);
+		for (double value : values)
+			list.add(value);
+		return list;
+	} // end toList()
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		Map<Double, List<Byte>> encoderMap = new HashMap<>();
+		for (int i = 0; i < sortedCodeWords.length; i++)
+			encoderMap.put(sortedCodeWords[i], convertToBinary(sortedIndices[i], numBits));
+		Map<List<Byte>, Double> decoderMap = new HashMap<>();
+		for (int i = 0; i < codeWords.length; i++)
+			decoderMap.put(convertToBinary(i, numBits), codeWords[i]);
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("encoderMap", encoderMap);
+		fields.put("decoderMap", decoderMap);
+		fields.put("partitionThresholds", partition == null ? null : partition.getThresholds());
+		fields.put("partitionIndices", partition == null ? null : partition.getIndices());
+		out.writeFields();
+	} // end writeObject()
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		Map<List<Byte>, Double> decoderMap = (Map<List<Byte>, Double>) fields.get("decoderMap", null);
+		numBits = Integer.numberOfTrailingZeros(decoderMap.size());
+		codeWords = new double[decoderMap.size()];
+		for (Map.Entry<List<Byte>, Double> entry : decoderMap.entrySet())
+			codeWords[convertFromBinary(entry.getKey())] = entry.getValue();
+		buildEncoderTable(toList(codeWords));
+		double[] partitionThresholds = (double[]) fields.get("partitionThresholds", null);
+		int[] partitionIndices = (int[]) fields.get("partitionIndices", null);
+		if (partitionThresholds != null && partitionIndices != null)
+			partition = new ChannelOptimizedPartition(partitionThresholds, partitionIndices);
+	} // end readObject()
+
 }
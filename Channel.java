@@ -1,14 +1,20 @@
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 public class Channel {
 
+	public static final int MAX_MARKOV_ORDER = 63; // the error history is kept in the bits of a long
+	private static final int PARALLEL_MATRIX_SIZE = 256; // codebook size from which matrix rows are filled in parallel
+
 	private final double BIT_ERROR_RATE, BURST_LEVEL;
 	private final int MARKOV_ORDER; // the order of the markov process (remembers last M results)
 	private final double PROB00, PROB01, PROB10, PROB11;	// Transition probabilities given by probAB := P(A|B)
-	private LinkedList<Byte> history;
+	private final double[] ERROR_PROBS; // [s] : probability of an error after s errors in the last M bits
+	private final Map<Integer, double[]> transitionMatrices = new ConcurrentHashMap<>(); // by codebook size
 
 
 	/**
@@ -17,14 +23,30 @@ public class Channel {
 	 * @param burstLevel The amount of "bursty" behavior, higher is more (delta in thesis).
 	 */
 	public Channel(double bitErrorRate, double burstLevel) {
+		this(bitErrorRate, burstLevel, 1);
+	} // end two-parameter constructor
+	
+	/**
+	 * Creates a Polya contagion channel of order M: a bit is in error with probability
+	 * (epsilon + delta * s) / (1 + M * delta), where s is the number of errors among the last M bits.
+	 * @param bitErrorRate The amount of channel noise (channel bit error rate), must be between 0 and 1 (epsilon in thesis).
+	 * @param burstLevel The amount of "bursty" behavior, higher is more (delta in thesis).
+	 * @param markovOrder The number of past bits the channel remembers (M in thesis), between 1 and MAX_MARKOV_ORDER.
+	 */
+	public Channel(double bitErrorRate, double burstLevel, int markovOrder) {
+		if (markovOrder < 1 || markovOrder > MAX_MARKOV_ORDER)
+			throw new IllegalArgumentException("Markov order must be between 1 and " + MAX_MARKOV_ORDER + ": " + markovOrder);
 		this.BIT_ERROR_RATE = bitErrorRate;
 		this.BURST_LEVEL = burstLevel;
-		this.MARKOV_ORDER = 1;
+		this.MARKOV_ORDER = markovOrder;
 		this.PROB00 = (1 - BIT_ERROR_RATE + BURST_LEVEL) / (1 + BURST_LEVEL);
 		this.PROB01 = (1 - BIT_ERROR_RATE) / (1 + BURST_LEVEL);
 		this.PROB10 = BIT_ERROR_RATE / (1 +  BURST_LEVEL);
 		this.PROB11 = (BIT_ERROR_RATE + BURST_LEVEL) / (1 + BURST_LEVEL);
-	} // end two-parameter constructor
+		this.ERROR_PROBS = new double[markovOrder + 1];
+		for (int s = 0; s <= markovOrder; s++)
+			ERROR_PROBS[s] = (BIT_ERROR_RATE + s * BURST_LEVEL) / (1 + markovOrder * BURST_LEVEL);
+	} // end three-parameter constructor
 	
 	public double getBitErrorRate(){
 		return BIT_ERROR_RATE;
@@ -44,83 +66,183 @@ public class Channel {
 	 * @return channelOutput ArrayList of Bytes, representing the output bit stream.
 	 */
 	public List<Byte> sendThroughChannel(List<Byte> encodedImage) {
-		initializeQueue();
-		List<Byte> channelOutput = new ArrayList<Byte>(encodedImage.size());
-		
-		// can be initialized with seed if testing requires it
-		Random rng = new Random();
-		
-		for (int i = 0; i < encodedImage.size(); i++) {
-			// calculate error prob (from Julian's thesis)
-			double errorProb = (BIT_ERROR_RATE + (sumHistory() * BURST_LEVEL)) / (1 + (MARKOV_ORDER * BURST_LEVEL));
-			double randNumber = rng.nextDouble();
-			
-			// check whether or not the bit was flipped based on calculated prob
-			byte potentiallyFlippedBit;
-			if (randNumber <= errorProb) {
-				potentiallyFlippedBit = (byte) ((encodedImage.get(i) + 1) % 2);
-				history.add((byte) 1);
+		return sendThroughChannel(BitBuffer.fromList(encodedImage)).toList();
+	} // end sendThroughChannel()
+	
+	/**
+	 * Send the data through the channel, with a randomly seeded random number generator.
+	 * @param encodedImage BitBuffer representing the bit stream. It is not modified.
+	 * @return channelOutput BitBuffer representing the output bit stream.
+	 */
+	public BitBuffer sendThroughChannel(BitBuffer encodedImage) {
+		return sendThroughChannel(encodedImage, new SplittableRandom());
+	} // end sendThroughChannel(BitBuffer)
+	
+	/**
+	 * Send the data through the channel.
+	 * @param encodedImage BitBuffer representing the bit stream. It is not modified.
+	 * @param rng Random number generator, so that runs can be repeated.
+	 * @return channelOutput BitBuffer representing the output bit stream.
+	 */
+	public BitBuffer sendThroughChannel(BitBuffer encodedImage, SplittableRandom rng) {
+		BitBuffer channelOutput = encodedImage.copy();
+		addNoise(channelOutput, rng);
+		return channelOutput;
+	} // end sendThroughChannel(BitBuffer, SplittableRandom)
+	
+	/**
+	 * Flips bits of the data in place as the channel would. The channel starts with no past errors.
+	 * It keeps no state, so it can be shared between threads as long as each uses its own random
+	 * number generator.
+	 * @param data The bit stream to corrupt.
+	 * @param rng Random number generator.
+	 */
+	public void addNoise(BitBuffer data, SplittableRandom rng) {
+		if (MARKOV_ORDER == 1)
+			addFirstOrderNoise(data, rng);
+		else
+			addHigherOrderNoise(data, rng);
+	} // end addNoise()
+	
+	/**
+	 * Bit i is in error with probability (epsilon + delta * e_(i-1)) / (1 + delta), from Julian's thesis.
+	 * Rather than drawing a random number per bit, the lengths of the runs of correct and erroneous bits
+	 * are drawn directly: each is geometric, since the error probability only depends on which kind of
+	 * run the channel is in. Runs of errors are flipped a word at a time.
+	 */
+	private void addFirstOrderNoise(BitBuffer data, SplittableRandom rng) {
+		long size = data.size();
+		long position = 0;
+		while (position < size) {
+			// a run of correct bits, ended by an error (probability PROB10 per bit)
+			position += Math.min(runLength(rng, PROB10), size - position);
+			if (position >= size)
+				break;
+			// a run of errors, ended by a correct bit (probability PROB01 per bit)
+			long numErrors = 1 + Math.min(runLength(rng, PROB01), size - position - 1);
+			data.flipBits(position, position + numErrors);
+			position += numErrors + 1; // the correct bit that ended the run
+		}
+	} // end addFirstOrderNoise()
+	
+	/**
+	 * The last M error bits are kept in the bits of a long with a running count, so each bit costs O(1).
+	 * While none of the last M bits were in error the error probability is constant, so the run of
+	 * correct bits up to the next error is drawn at once. Errors are collected into 64-bit words
+	 * before being applied.
+	 */
+	private void addHigherOrderNoise(BitBuffer data, SplittableRandom rng) {
+		long size = data.size();
+		long windowMask = (1L << MARKOV_ORDER) - 1;
+		long window = 0; 	// bit k is set if the bit k + 1 places back was in error
+		int numErrors = 0; 	// number of set bits in window
+		long errorWord = 0;
+		long wordIndex = 0;
+		long position = 0;
+		while (position < size) {
+			if (numErrors == 0) {
+				// no recent errors, skip ahead to the next one
+				position += Math.min(runLength(rng, ERROR_PROBS[0]), size - position);
+				if (position >= size)
+					break;
 			}
-			else {
-				potentiallyFlippedBit = encodedImage.get(i);
-				history.add((byte) 0);
+			boolean error = numErrors == 0 || rng.nextDouble() < ERROR_PROBS[numErrors];
+			numErrors -= (int) (window >>> (MARKOV_ORDER - 1)); // the bit leaving the window
+			window = (window << 1) & windowMask;
+			if (error) {
+				window |= 1;
+				numErrors++;
+				if (position >>> 6 != wordIndex) {
+					data.xorWord(wordIndex, errorWord);
+					wordIndex = position >>> 6;
+					errorWord = 0;
+				}
+				errorWord |= 1L << (position & 63);
 			}
-			// update output and history queue
-			channelOutput.add(potentiallyFlippedBit);
-			history.remove();
+			position++;
 		}
-		return channelOutput;
-	} // end sendThroughChannel()
+		data.xorWord(wordIndex, errorWord);
+	} // end addHigherOrderNoise()
 	
-	private byte sumHistory() {
-		byte sum = 0;
-		for (Byte bit : history)
-			sum += bit;
-		return sum;
-	} // end sumHistory()
-
-	private void initializeQueue() {
-		this.history = new LinkedList<Byte>();
-		for (int i = 0; i < MARKOV_ORDER; i++)
-			history.add((byte) 0);
-	} // end initializeQueue()
+	/**
+	 * Draws the number of trials before the first success, when each succeeds with probability p.
+	 * @param rng Random number generator.
+	 * @param p Probability of success.
+	 * @return The run length, or Long.MAX_VALUE if p is 0.
+	 */
+	private static long runLength(SplittableRandom rng, double p) {
+		if (p >= 1)
+			return 0;
+		if (p <= 0)
+			return Long.MAX_VALUE;
+		double uniform = 1 - rng.nextDouble(); // in (0, 1]
+		return (long) (Math.log(uniform) / Math.log1p(-p)); // saturates to Long.MAX_VALUE
+	} // end runLength()
+	
+	/**
+	 * Returns the transition probabilities for codewords of a given size, computing them the first time
+	 * they are asked for. The matrix is flat and row-major: P(j|i), the probability of receiving word j
+	 * when word i is sent, is at [i * size + j]. It is shared by every caller, so it must not be modified.
+	 * @param size Size of the codebook (must be a power of 2).
+	 * @return Flat matrix containing these transition probabilities.
+	 */
+	public double[] getTransitionMatrix(int size) {
+		double[] transitionMatrix = transitionMatrices.get(size);
+		if (transitionMatrix == null)
+			transitionMatrix = transitionMatrices.computeIfAbsent(size, this::computeTransitionMatrix);
+		return transitionMatrix;
+	} // end getTransitionMatrix()
 	
 	/**
 	 * Compute all transition probabilities using the attributes of the channel.
 	 * @param size Size of the codebook (must be a power of 2).
-	 * @return	Matrix containing these transition probabilities.
+	 * @return	Matrix containing these transition probabilities, a new copy on every call.
 	 */
 	public double[][] initializeConditionalProb(int size) {
-		double[][] conditionalProb = new double[size][size];
-		int numBits = (int) (Math.log(size)/Math.log(2));
-		int errorWord;
-		boolean pastError;
-		double probError;
-		for (int i = 0; i < size; i++) { 			// i = word sent
-			for (int j = 0; j < size; j++) {		// j = word received
-				errorWord = i ^ j;
-				if ((errorWord & 1) == 0) {
-					probError = 1 - BIT_ERROR_RATE;
-					pastError = false;
-				}
-				else {
-					probError = BIT_ERROR_RATE;
-					pastError = true;
-				}
-				for (int k = 1; k < numBits; k++) {
-					if (((errorWord >> k) & 1) == 0) {
-						probError *= pastError ? PROB01 : PROB00;
-						pastError = false;
-					}
-					else {
-						probError *= pastError ? PROB11 : PROB10;
-						pastError = true;
-					}
-				}
-				conditionalProb[i][j] = probError;
-			}
-		}
+		double[] transitionMatrix = getTransitionMatrix(size);
+		double[][] conditionalProb = new double[size][];
+		for (int i = 0; i < size; i++)
+			conditionalProb[i] = Arrays.copyOfRange(transitionMatrix, i * size, (i + 1) * size);
 		return conditionalProb;
 	}
+	
+	/**
+	 * Computes the flat transition matrix. The channel is taken to be stationary, so the k-th bit of a
+	 * word, k < M, sees only the k bits before it: it is in error with probability
+	 * (epsilon + delta * s) / (1 + k * delta), s being the number of errors among them. The probability
+	 * of each error word is computed once, in O(K log K), since P(j|i) only depends on i ^ j. Large
+	 * matrices are filled a row per task.
+	 * @param size Size of the codebook (must be a power of 2).
+	 * @return Flat matrix containing these transition probabilities.
+	 */
+	private double[] computeTransitionMatrix(int size) {
+		if (size <= 0 || Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("Codebook size must be a power of 2: " + size);
+		int numBits = Integer.numberOfTrailingZeros(size);
+		double[] errorWordProbs = new double[size];
+		for (int errorWord = 0; errorWord < size; errorWord++) {
+			double probError = 1;
+			for (int k = 0; k < numBits; k++) {
+				int windowSize = Math.min(k, MARKOV_ORDER);
+				int numPastErrors = Integer.bitCount((errorWord >>> (k - windowSize)) & ((1 << windowSize) - 1));
+				if (((errorWord >> k) & 1) == 0)
+					probError *= (1 - BIT_ERROR_RATE + (windowSize - numPastErrors) * BURST_LEVEL) / (1 + windowSize * BURST_LEVEL);
+				else
+					probError *= (BIT_ERROR_RATE + numPastErrors * BURST_LEVEL) / (1 + windowSize * BURST_LEVEL);
+			}
+			errorWordProbs[errorWord] = probError;
+		}
+		
+		double[] transitionMatrix = new double[size * size];
+		IntStream rows = IntStream.range(0, size); 	// i = word sent
+		if (size >= PARALLEL_MATRIX_SIZE)
+			rows = rows.parallel();
+		rows.forEach(i -> {
+			int rowStart = i * size;
+			for (int j = 0; j < size; j++)			// j = word received
+				transitionMatrix[rowStart + j] = errorWordProbs[i ^ j];
+		});
+		return transitionMatrix;
+	} // end computeTransitionMatrix()
 
 }
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * The encoding regions of a channel-optimized scalar quantizer. Sending index l for a source word x
+ * has expected distortion sum_j P(j|l) (x - c_j)^2 = x^2 - 2 a_l x + b_l, where a_l = sum_j P(j|l) c_j
+ * and b_l = sum_j P(j|l) c_j^2 (each row of P sums to one). The best index is therefore given by the
+ * lower envelope of the lines b_l - 2 a_l x, which splits the real line into intervals. Those
+ * intervals are computed once, so encoding is a binary search over at most K - 1 thresholds instead
+ * of an O(K^2) sum.
+ */
+public class ChannelOptimizedPartition implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1L; // for serialization
+
+	private final double[] thresholds; // ascending; region r is (thresholds[r-1], thresholds[r]]
+	private final int[] indices;       // [r] : the index sent for source words in region r
+
+
+	/**
+	 * Computes the partition of a codebook for a channel.
+	 * @param codeWords Codewords in index order.
+	 * @param channel The channel the codewords are sent over.
+	 */
+	public ChannelOptimizedPartition(double[] codeWords, Channel channel) {
+		this(codeWords, channel.getTransitionMatrix(codeWords.length));
+	} // end channel constructor
+
+	/**
+	 * Computes the partition of a codebook for a channel.
+	 * @param codeWords Codewords in index order.
+	 * @param transitionMatrix [i][j] : Probability of receiving index j when index i is sent.
+	 */
+	public ChannelOptimizedPartition(double[] codeWords, double[][] transitionMatrix) {
+		this(codeWords, flatten(transitionMatrix));
+	} // end matrix constructor
+
+	/**
+	 * Computes the partition of a codebook for a channel.
+	 * @param codeWords Codewords in index order.
+	 * @param transitionMatrix [i * K + j] : Probability of receiving index j when index i is sent.
+	 */
+	public ChannelOptimizedPartition(double[] codeWords, double[] transitionMatrix) {
+		int size = codeWords.length;
+		double[] slopes = new double[size];     // a_l
+		double[] intercepts = new double[size]; // b_l
+		for (int l = 0; l < size; l++) {
+			double mean = 0, secondMoment = 0;
+			int rowStart = l * size;
+			for (int j = 0; j < size; j++) {
+				mean += transitionMatrix[rowStart + j] * codeWords[j];
+				secondMoment += transitionMatrix[rowStart + j] * codeWords[j] * codeWords[j];
+			}
+			slopes[l] = mean;
+			intercepts[l] = secondMoment;
+		}
+
+		// order the lines by a_l, so the envelope runs from left to right; equal lines keep the lowest index
+		Integer[] order = new Integer[size];
+		for (int l = 0; l < size; l++)
+			order[l] = l;
+		Arrays.sort(order, (x, y) -> slopes[x] != slopes[y] ? Double.compare(slopes[x], slopes[y]) :
+				intercepts[x] != intercepts[y] ? Double.compare(intercepts[x], intercepts[y]) : Integer.compare(x, y));
+
+		// convex hull trick: keep only the lines that are minimal somewhere
+		int[] hull = new int[size];
+		double[] hullThresholds = new double[size];
+		int hullSize = 0;
+		for (int l : order) {
+			if (hullSize > 0 && slopes[hull[hullSize - 1]] == slopes[l])
+				continue; // same slope as the last line, but a higher intercept or index
+			double threshold = Double.NEGATIVE_INFINITY;
+			while (hullSize > 0) {
+				threshold = intersect(slopes, intercepts, hull[hullSize - 1], l);
+				if (hullSize > 1 && threshold <= hullThresholds[hullSize - 2])
+					hullSize--; // the last line is never strictly below both neighbours
+				else
+					break;
+			}
+			if (hullSize > 0)
+				hullThresholds[hullSize - 1] = threshold;
+			hull[hullSize++] = l;
+		}
+		this.indices = Arrays.copyOf(hull, hullSize);
+		this.thresholds = Arrays.copyOf(hullThresholds, hullSize - 1);
+	} // end constructor
+
+	/**
+	 * Rebuilds a partition from its regions, as returned by getThresholds and getIndices.
+	 * @param thresholds Region boundaries in ascending order.
+	 * @param indices The index sent in each region, one more than the number of thresholds.
+	 */
+	public ChannelOptimizedPartition(double[] thresholds, int[] indices) {
+		if (indices.length != thresholds.length + 1)
+			throw new IllegalArgumentException("Expected " + (thresholds.length + 1) + " regions, got " + indices.length);
+		for (int r = 1; r < thresholds.length; r++) {
+			if (!(thresholds[r - 1] <= thresholds[r]))
+				throw new IllegalArgumentException("Thresholds are not in ascending order");
+		}
+		this.thresholds = thresholds.clone();
+		this.indices = indices.clone();
+	} // end region constructor
+
+	/**
+	 * Finds the index with the least expected distortion for a source word.
+	 * @param sourceWord The source word that is to be encoded.
+	 * @return Index to send.
+	 */
+	public int encodeIndex(double sourceWord) {
+		int low = 0, high = thresholds.length; // find the first threshold >= sourceWord
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (thresholds[mid] < sourceWord)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return indices[low];
+	} // end encodeIndex()
+
+	/**
+	 * @return A copy of the region boundaries, in ascending order.
+	 */
+	public double[] getThresholds() {
+		return thresholds.clone();
+	} // end getThresholds()
+
+	/**
+	 * @return A copy of the index sent in each region.
+	 */
+	public int[] getIndices() {
+		return indices.clone();
+	} // end getIndices()
+
+	private static double[] flatten(double[][] matrix) {
+		double[] flat = new double[matrix.length * matrix.length];
+		for (int i = 0; i < matrix.length; i++)
+			System.arraycopy(matrix[i], 0, flat, i * matrix.length, matrix.length);
+		return flat;
+	} // end flatten()
+
+	/**
+	 * @return The source word where line k starts to beat line l, given that a_k > a_l.
+	 */
+	private static double intersect(double[] slopes, double[] intercepts, int l, int k) {
+		return (intercepts[k] - intercepts[l]) / (2 * (slopes[k] - slopes[l]));
+	} // end intersect()
+
+}
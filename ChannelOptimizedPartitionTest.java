@@ -0,0 +1,48 @@
+import java.util.Random;
+
+public class ChannelOptimizedPartitionTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int NUM_CODEBOOKS = 200;
+	private static final int NUM_SOURCE_WORDS = 500;
+
+	public static void main(String[] args) {
+		Random randomNumberGenerator = new Random(RNG_SEED);
+		int numWorse = 0;
+		for (int t = 0; t < NUM_CODEBOOKS; t++) {
+			int size = 1 << (1 + randomNumberGenerator.nextInt(8));
+			double[] codeWords = new double[size];
+			for (int i = 0; i < size; i++)
+				codeWords[i] = 2 * randomNumberGenerator.nextGaussian();
+			Channel channel = new Channel(0.3 * randomNumberGenerator.nextDouble(), randomNumberGenerator.nextInt(11));
+			double[][] transitionMatrix = channel.initializeConditionalProb(size);
+			ChannelOptimizedPartition partition = new ChannelOptimizedPartition(codeWords, transitionMatrix);
+
+			// the chosen index must have the least expected distortion, found by brute force
+			for (int s = 0; s < NUM_SOURCE_WORDS; s++) {
+				double sourceWord = 3 * randomNumberGenerator.nextGaussian();
+				double bestDistortion = Double.POSITIVE_INFINITY;
+				for (int l = 0; l < size; l++)
+					bestDistortion = Math.min(bestDistortion, expectedDistortion(sourceWord, l, codeWords, transitionMatrix));
+				double chosenDistortion = expectedDistortion(sourceWord, partition.encodeIndex(sourceWord), codeWords, transitionMatrix);
+				if (chosenDistortion > bestDistortion + 1e-9 * (1 + bestDistortion))
+					numWorse++;
+			}
+		}
+		System.out.println("Source words not sent with the best index: " + numWorse);
+
+		// on a noiseless channel the partition is the nearest neighbour rule
+		double[] codeWords = {1.5, -0.5, 0.5, -1.5};
+		COSQ cosq = new COSQ(codeWords, new ChannelOptimizedPartition(codeWords, new Channel(0, 0).initializeConditionalProb(4)));
+		System.out.println("Noiseless indices (expect 3 1 2 0): " + cosq.encodeIndex(-2) + " " + cosq.encodeIndex(-0.4)
+				+ " " + cosq.encodeIndex(0.4) + " " + cosq.encodeIndex(9));
+	}
+
+	private static double expectedDistortion(double sourceWord, int index, double[] codeWords, double[][] transitionMatrix) {
+		double distortion = 0;
+		for (int j = 0; j < codeWords.length; j++)
+			distortion += transitionMatrix[index][j] * (sourceWord - codeWords[j]) * (sourceWord - codeWords[j]);
+		return distortion;
+	}
+
+}
@@ -2,15 +2,102 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class ChannelTest {
 
+	private static final long RNG_SEED = 123456789;
+	private static final int NUM_BITS = 1 << 23;
+	private static final double NUM_STANDARD_ERRORS = 5; // tolerance of each estimate
+	private static final int MIN_SAMPLES = 1000; // conditional probabilities seen fewer times are not checked
+
 	public static void main(String[] args) {
 		Channel channel = new Channel(0.1, 5);
 		List<Byte> data = new ArrayList<Byte>(Collections.nCopies(100, (byte)(0)));
 		List<Byte> output = channel.sendThroughChannel(data);
 		for (Byte bit : output)
 			System.out.print(bit.byteValue());
+		System.out.println();
+
+		// order 1: the error rate is epsilon, and P(e_i | e_(i-1)) follows the Polya urn
+		BitBuffer zeros = new BitBuffer(NUM_BITS);
+		for (int i = 0; i < NUM_BITS / 64; i++)
+			zeros.append(0L, 64);
+		SplittableRandom seeds = new SplittableRandom(RNG_SEED);
+		for (double[] parameters : new double[][] {{0.01, 0}, {0.05, 1}, {0.1, 5}, {0.2, 10}}) {
+			double ber = parameters[0], burst = parameters[1];
+			BitBuffer errors = new Channel(ber, burst).sendThroughChannel(zeros, seeds.split());
+			long numErrors = 0;
+			long[] counts = new long[2], errorCounts = new long[2]; // [previous bit in error]
+			for (long i = 0; i < NUM_BITS; i++) {
+				int error = errors.getBit(i);
+				numErrors += error;
+				if (i > 0) {
+					int previous = errors.getBit(i - 1);
+					counts[previous]++;
+					errorCounts[previous] += error;
+				}
+			}
+			double correlation = burst / (1 + burst); // of consecutive error bits
+			double effectiveNumBits = NUM_BITS * (1 - correlation) / (1 + correlation);
+			boolean ok = isClose((double) numErrors / NUM_BITS, ber, effectiveNumBits)
+					&& isClose((double) errorCounts[0] / counts[0], ber / (1 + burst), counts[0])
+					&& isClose((double) errorCounts[1] / counts[1], (ber + burst) / (1 + burst), counts[1]);
+			System.out.printf("Order 1, ber %.2f, burst %4.1f: BER %.5f, P(e|e) %.4f (expected %.4f), P(e|no e) %.5f (expected %.5f) %s%n",
+					ber, burst, (double) numErrors / NUM_BITS, (double) errorCounts[1] / counts[1], (ber + burst) / (1 + burst),
+					(double) errorCounts[0] / counts[0], ber / (1 + burst), ok ? "(ok)" : "(OUTSIDE TOLERANCE)");
+		}
+
+		// order M: P(e_i | s errors among the last M bits) = (epsilon + s * delta) / (1 + M * delta)
+		for (double[] parameters : new double[][] {{0.05, 1, 2}, {0.1, 2, 3}, {0.02, 0.5, 5}, {0.1, 1, 8}}) {
+			double ber = parameters[0], burst = parameters[1];
+			int order = (int) parameters[2];
+			BitBuffer errors = new Channel(ber, burst, order).sendThroughChannel(zeros, seeds.split());
+			long[] counts = new long[order + 1], errorCounts = new long[order + 1]; // [errors in the window]
+			int numWindowErrors = 0;
+			for (long i = 0; i < NUM_BITS; i++) {
+				int error = errors.getBit(i);
+				if (i >= order) {
+					counts[numWindowErrors]++;
+					errorCounts[numWindowErrors] += error;
+					numWindowErrors -= errors.getBit(i - order);
+				}
+				numWindowErrors += error;
+			}
+			int numChecked = 0;
+			boolean ok = true;
+			for (int s = 0; s <= order; s++) {
+				if (counts[s] < MIN_SAMPLES)
+					continue;
+				numChecked++;
+				ok &= isClose((double) errorCounts[s] / counts[s], (ber + s * burst) / (1 + order * burst), counts[s]);
+			}
+			System.out.printf("Order %d, ber %.2f, burst %.1f: P(e | s errors in window) checked for %d values of s %s%n",
+					order, ber, burst, numChecked, ok ? "(ok)" : "(OUTSIDE TOLERANCE)");
+		}
+
+		// every row of a transition matrix is a distribution over the received words
+		double worstRowError = 0;
+		for (int order : new int[] {1, 2, 3, 5, 8}) {
+			Channel orderChannel = new Channel(0.1, 2, order);
+			for (int size = 2; size <= 256; size *= 2) {
+				double[] transitionMatrix = orderChannel.getTransitionMatrix(size);
+				for (int i = 0; i < size; i++) {
+					double rowSum = 0;
+					for (int j = 0; j < size; j++)
+						rowSum += transitionMatrix[i * size + j];
+					worstRowError = Math.max(worstRowError, Math.abs(rowSum - 1));
+				}
+			}
+		}
+		System.out.println("Transition matrix rows, orders 1 to 8: worst |sum - 1| = " + worstRowError + (worstRowError < 1e-12 ? " (ok)" : " (WRONG)"));
+	}
+
+	/**
+	 * @return Whether an estimated probability is within NUM_STANDARD_ERRORS of the expected one.
+	 */
+	private static boolean isClose(double estimate, double expected, double numSamples) {
+		return Math.abs(estimate - expected) <= NUM_STANDARD_ERRORS * Math.sqrt(expected * (1 - expected) / numSamples) + 1e-12;
 	}
 
 }
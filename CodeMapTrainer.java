@@ -1,18 +1,18 @@
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class CodeMapTrainer {
 
 	public static final double EPSILON = 0.0005; // a small number
-	
-	private List<Double> sourceVectors, codeVectors;
-	private Map<Double, Double> codemap;
-	private Map<Double, Integer> codeIndexMap;
-	private double[][] transitionMatrix;
-	
+
+	private double[] sourceVectors, codeVectors;
+	private int[] assignments; // [n] : index of the code vector that source vector n is mapped to
+	private double[] transitionMatrix; // [i * K + j] : probability of receiving index j when i is sent, shared with the channel
+
+	// sufficient statistics of each cell of the current assignments, for the channel-optimized update
+	private double[] cellCounts, cellSums, cellMeans, cellDeviations; // cellDeviations: sum of squared deviations about the cell mean
+
 	/**
 	 * Performs scalar quantization on a set of (1-dimensional) source vectors
 	 * @param sourceVectors The source data to be quantized.
@@ -21,20 +21,32 @@ public class CodeMapTrainer {
 	 * @return The list of code vectors.
 	 */
 	public List<Double> generateInitialCodebook(List<Double> sourceVectors, int desiredNumCodeVectors) {
+		return toList(generateInitialCodebook(toArray(sourceVectors), desiredNumCodeVectors));
+	} // end generateInitialCodebook()
+
+	/**
+	 * Performs scalar quantization on a set of (1-dimensional) source vectors
+	 * @param sourceVectors The source data to be quantized. It is not modified.
+	 * @param desiredNumCodeVectors The minimum desired number of code vectors. Note that the
+	 * number of code vectors must be a power of two, so this number is only a lower bound.
+	 * @return The code vectors, in increasing order.
+	 */
+	public double[] generateInitialCodebook(double[] sourceVectors, int desiredNumCodeVectors) {
 		this.sourceVectors = sourceVectors;
-		this.codeVectors = new ArrayList<>();
+		this.assignments = new int[sourceVectors.length];
 		double prevAvgDistortion; // D^(i-1) on data-compression.com
 		double currAvgDistortion;// D^(i) on data-compression.com
-		
+
 		// set up the initial code vector, as seen in Step 2 on data-compression.com
-		double initialCodeVector = (1.0 / sourceVectors.size()) * 
-				(sourceVectors.stream().reduce(0.0, (x,y) -> x+y));
-		codeVectors.add(initialCodeVector);
-		
+		double sum = 0;
+		for (double sourceVector : sourceVectors)
+			sum += sourceVector;
+		this.codeVectors = new double[] {sum / sourceVectors.length};
+
 		updateCodemap();
 		currAvgDistortion = calculateAverageDistortion();
-		
-		while (codeVectors.size() < desiredNumCodeVectors) {
+
+		while (codeVectors.length < desiredNumCodeVectors) {
 			splitCodeVectors();
 			do {
 				prevAvgDistortion = currAvgDistortion;
@@ -45,27 +57,42 @@ public class CodeMapTrainer {
 					prevAvgDistortion > CodeMapTrainer.EPSILON);
 		}
 		updateCodemap();
-		
-		Collections.sort(codeVectors);
+
 		return codeVectors;
 	} // end generateInitialCodebook()
-	
+
 	/**
 	 * This generates an updated codebook for a new channel.
 	 * @param sourceVectors The training data.
 	 * @param initialCodebook The old codebook, trained on another channel.
 	 * @param channel The new channel that the codebook will be trained for.
-	 * @return
+	 * @return The updated codebook, in the same index order as the old one.
 	 */
 	public List<Double> generateUpdatedCodebook(List<Double> sourceVectors, List<Double> initialCodebook, Channel channel) {
+		return toList(generateUpdatedCodebook(toArray(sourceVectors), toArray(initialCodebook), channel));
+	} // end generateUpdatedCodebook()
+
+	/**
+	 * This generates an updated codebook for a new channel.
+	 * @param sourceVectors The training data. It is not modified.
+	 * @param initialCodebook The old codebook, trained on another channel. It is not modified.
+	 * @param channel The new channel that the codebook will be trained for.
+	 * @return The updated codebook, in the same index order as the old one.
+	 */
+	public double[] generateUpdatedCodebook(double[] sourceVectors, double[] initialCodebook, Channel channel) {
 		this.sourceVectors = sourceVectors;
-		this.codeVectors = initialCodebook;
-		this.transitionMatrix = channel.initializeConditionalProb(this.codeVectors.size());
-		
+		this.assignments = new int[sourceVectors.length];
+		this.codeVectors = initialCodebook.clone();
+		this.transitionMatrix = channel.getTransitionMatrix(this.codeVectors.length);
+		this.cellCounts = new double[codeVectors.length];
+		this.cellSums = new double[codeVectors.length];
+		this.cellMeans = new double[codeVectors.length];
+		this.cellDeviations = new double[codeVectors.length];
+
 		updateCodemapWithProbability();
 		double prevAvgDistortion; // D^(i-1) on data-compression.com
 		double currAvgDistortion = calculateAverageDistortionWithProbability(); // D^(i) on data-compression.com
-		
+
 		do {
 			prevAvgDistortion = currAvgDistortion;
 			updateCodemapWithProbability();
@@ -73,126 +100,147 @@ public class CodeMapTrainer {
 			currAvgDistortion = calculateAverageDistortionWithProbability();
 		} while((prevAvgDistortion - currAvgDistortion) /
 				prevAvgDistortion > CodeMapTrainer.EPSILON);
-		
+
 		updateCodemapWithProbability();
-		
-		// Collections.sort(codeVectors); Please not this is NOT used in this case
-		return codeVectors;		
+
+		// the code vectors are NOT sorted in this case, their order is the index map
+		return codeVectors;
 	} // end generateUpdatedCodebook()
 
+	/**
+	 * Splits every code vector in two. The code vectors are kept sorted, which the
+	 * nearest neighbour search in updateCodemap relies on.
+	 */
 	private void splitCodeVectors() {
-		List<Double> tempCodeVectors = new ArrayList<>();
-		for (Double codeVector : codeVectors) {
-			tempCodeVectors.add((1 + CodeMapTrainer.EPSILON) * codeVector);
-			tempCodeVectors.add((1 - CodeMapTrainer.EPSILON) * codeVector);
+		double[] tempCodeVectors = new double[2 * codeVectors.length];
+		for (int i = 0; i < codeVectors.length; i++) {
+			tempCodeVectors[2 * i] = (1 + CodeMapTrainer.EPSILON) * codeVectors[i];
+			tempCodeVectors[2 * i + 1] = (1 - CodeMapTrainer.EPSILON) * codeVectors[i];
 		}
+		Arrays.sort(tempCodeVectors);
 		codeVectors = tempCodeVectors;
 	} // end splitCodeVectors()
 
+	/**
+	 * Maps each source vector to its nearest code vector. The code vectors must be sorted.
+	 */
 	private void updateCodemap() {
-		this.codemap = new HashMap<>();
-		for (Double sourceVector : sourceVectors) {
-			double currentMinimumDistanceVector = codeVectors.get(0);
-			for (Double codeVector : codeVectors) {
-				// the following is left as pow instead of abs just to be consistent with
-				// data-compression.com and MSE, although abs would work the same and
-				// likely be (in theory) slightly faster
-				if (Math.pow(sourceVector - codeVector, 2) <
-						Math.pow(sourceVector - currentMinimumDistanceVector, 2))
-					currentMinimumDistanceVector = codeVector;
-			}
-			codemap.put(sourceVector, currentMinimumDistanceVector);
-		}
+		for (int n = 0; n < sourceVectors.length; n++)
+			assignments[n] = calcNearestIndex(sourceVectors[n]);
 	} // end updateCodemap()
 
 	/**
-	 * Updates codemap and codeIndexMap which map each sourceword to the appropriate codeword and index, respectively.
+	 * Updates the assignments, which map each sourceword to the appropriate codeword index according
+	 * to the generalized nearest neighbor condition, along with the count, sum and sum of squares of
+	 * the source vectors in each cell. The encoding regions are computed once, so each source
+	 * vector costs a binary search.
 	 */
 	private void updateCodemapWithProbability() {
-		this.codemap = new HashMap<>(sourceVectors.size());
-		this.codeIndexMap = new HashMap<>(sourceVectors.size());
-		int bestIndex;
-		for (double sourceVector : sourceVectors) {
-			bestIndex = calcBestIndex(sourceVector);
-			codeIndexMap.put(sourceVector, bestIndex);
-			codemap.put(sourceVector, codeVectors.get(bestIndex));
+		ChannelOptimizedPartition partition = new ChannelOptimizedPartition(codeVectors, transitionMatrix);
+		Arrays.fill(cellCounts, 0);
+		Arrays.fill(cellSums, 0);
+		Arrays.fill(cellMeans, 0);
+		Arrays.fill(cellDeviations, 0);
+		for (int n = 0; n < sourceVectors.length; n++) {
+			double sourceVector = sourceVectors[n];
+			int index = partition.encodeIndex(sourceVector);
+			assignments[n] = index;
+			cellCounts[index]++;
+			cellSums[index] += sourceVector;
+			double delta = sourceVector - cellMeans[index]; // Welford's update, which does not cancel like a sum of squares
+			cellMeans[index] += delta / cellCounts[index];
+			cellDeviations[index] += delta * (sourceVector - cellMeans[index]);
 		}
 	} // end updateCodemapWithProbability()
-	
+
 	// see page 30 of thesis
 	private void updateCodeVectors() {
-		List<Double> tempCodeVectors = new ArrayList<>();
-		double numeratorSum, denominatorSum;
-		for (Double codeVector : codeVectors) {
-			numeratorSum = 0;
-			denominatorSum = 0;
-			for (Double sourceVector : sourceVectors) {
-				if (codemap.get(sourceVector).equals(codeVector)) {
-					numeratorSum += sourceVector;
-					denominatorSum++;
-				}
-			}
-			tempCodeVectors.add(numeratorSum / denominatorSum);
+		double[] sums = new double[codeVectors.length];
+		int[] counts = new int[codeVectors.length];
+		for (int n = 0; n < sourceVectors.length; n++) {
+			sums[assignments[n]] += sourceVectors[n];
+			counts[assignments[n]]++;
 		}
-		codeVectors = tempCodeVectors;
+		for (int i = 0; i < codeVectors.length; i++) {
+			if (counts[i] > 0) // an empty cell keeps its old code vector
+				codeVectors[i] = sums[i] / counts[i];
+		}
+		Arrays.sort(codeVectors); // centroids of sorted cells are almost always sorted already
 	} // end updateCodeVectors()
 
+	// see page 30 of thesis, using the per-cell counts and sums in place of the training set
 	private void updateCodeVectorsWithProbability() {
-		List<Double> tempCodeVectors = new ArrayList<>();
 		double numeratorSum, denominatorSum;
-		for (int j = 0; j < codeVectors.size(); j++) {
+		for (int j = 0; j < codeVectors.length; j++) {
 			numeratorSum = 0;
 			denominatorSum = 0;
-			for (int i = 0; i < codeVectors.size(); i++) {
-				for (double sourceVector : sourceVectors) {
-					if (codemap.get(sourceVector).equals(codeVectors.get(i))) {
-						numeratorSum += transitionMatrix[i][j] * sourceVector / sourceVectors.size();
-						denominatorSum += transitionMatrix[i][j] / sourceVectors.size();
-					}
-				}
+			for (int i = 0; i < codeVectors.length; i++) {
+				numeratorSum += transitionMatrix[i * codeVectors.length + j] * cellSums[i];
+				denominatorSum += transitionMatrix[i * codeVectors.length + j] * cellCounts[i];
 			}
-			tempCodeVectors.add(numeratorSum / denominatorSum);
+			if (denominatorSum > 0) // a codeword that is never received keeps its old value
+				codeVectors[j] = numeratorSum / denominatorSum;
 		}
-		codeVectors = tempCodeVectors;	
-	} // end updateCodeVectorsWithProbability() 
-	
+	} // end updateCodeVectorsWithProbability()
+
 	private double calculateAverageDistortion() {
 		double averageDistortion = 0;
-		for (Double sourceVector : sourceVectors)
-			averageDistortion += Math.pow(sourceVector - codemap.get(sourceVector), 2);
-		averageDistortion *= 1.0 / sourceVectors.size();
+		for (int n = 0; n < sourceVectors.length; n++) {
+			double error = sourceVectors[n] - codeVectors[assignments[n]];
+			averageDistortion += error * error;
+		}
+		averageDistortion *= 1.0 / sourceVectors.length;
 		return averageDistortion;
 	} // end calculateAverageDistortion()
-	
+
+	/**
+	 * Splits the sum over each cell of (x - c_j)^2 into the squared deviations about the cell mean plus
+	 * count (mean - c_j)^2, so only the per-cell statistics are needed. Both terms are non-negative, unlike
+	 * sumSquares - 2 c_j sum + count c_j^2, whose rounding error could decide when training stops.
+	 */
 	private double calculateAverageDistortionWithProbability() {
 		double averageDistortion = 0;
-		for (int j = 0; j < codeVectors.size(); j++) {
-			for (double sourceVector : sourceVectors) {
-					averageDistortion += transitionMatrix[codeIndexMap.get(sourceVector)][j] * Math.pow(sourceVector - codeVectors.get(j), 2);
+		for (int i = 0; i < codeVectors.length; i++) {
+			if (cellCounts[i] == 0)
+				continue;
+			for (int j = 0; j < codeVectors.length; j++) {
+				double offset = cellMeans[i] - codeVectors[j];
+				averageDistortion += transitionMatrix[i * codeVectors.length + j] * (cellDeviations[i] + cellCounts[i] * offset * offset);
 			}
 		}
-		averageDistortion *= 1.0 / sourceVectors.size();
+		averageDistortion *= 1.0 / sourceVectors.length;
 		return averageDistortion;
-	} // end calculateAverageDistortion()
-	
+	} // end calculateAverageDistortionWithProbability()
+
 	/**
-	 * Determine the index of the encoded source word according to the generalized nearest neighbor condition
+	 * Finds the nearest code vector with a binary search. The code vectors must be sorted.
+	 * Ties between two code vectors go to the smaller one.
 	 * @param sourceWord
 	 * @return Codeword index.
 	 */
-	private int calcBestIndex(double sourceWord) {
-		int bestIndex = 0;
-		double bestDistortion = -1; // inf
-		double currentDistortion;
-		for (int l = 0; l < codeVectors.size(); l++) {
-			currentDistortion = 0;			
-			for (int j = 0; j < codeVectors.size(); j++)
-				currentDistortion += Math.pow(sourceWord - codeVectors.get(j), 2) * transitionMatrix[l][j];
-			if (bestDistortion == -1 || bestDistortion > currentDistortion) {
-				bestDistortion = currentDistortion;
-				bestIndex = l;
-			}
-		}
-		return bestIndex;
-	}
+	private int calcNearestIndex(double sourceWord) {
+		int position = Arrays.binarySearch(codeVectors, sourceWord);
+		if (position >= 0)
+			return position;
+		int upper = -position - 1; // first code vector greater than the source word
+		if (upper == 0)
+			return 0;
+		if (upper == codeVectors.length)
+			return upper - 1;
+		return sourceWord - codeVectors[upper - 1] <= codeVectors[upper] - sourceWord ? upper - 1 : upper;
+	} // end calcNearestIndex()
+
+	private static double[] toArray(List<Double> values) {
+		double[] array = new double[values.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = values.get(i);
+		return array;
+	} // end toArray()
+
+	private static List<Double> toList(double[] values) {
+		List<Double> list = new ArrayList<>(values.length);
+		for (double value : values)
+			list.add(value);
+		return list;
+	} // end toList()
 }
@@ -1,15 +1,17 @@
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
-//see http://wendykierp.github.io/JTransforms/apidocs/org/jtransforms/dct/DoubleDCT_2D.html
-import org.jtransforms.dct.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class Coder implements java.io.Serializable {
 
 	private static final long serialVersionUID = 2L; 	// for serialization
 	private static final int BLOCK_SIZE = 8;			// size of DCT blocks (N in thesis)		
+	private static final int BANDS_PER_PROCESSOR = 4;	// bands of block rows per processor when coding in parallel
 	
 	// the number of bits that each pixel will take up when encoded
 	
@@ -24,15 +26,18 @@ public class Coder implements java.io.Serializable {
 													   
 	
 	private int coderRate; // encoder/decoder rate. bit allocation is multiplied by this positive integer
-	private double meanCoeffDC = 0;	// sample mean of the DC coefficients produced by the DCT
-	private double meanCoeffAC = 0; // sample mean of the AC coefficients produced by the DCT
-	private double varCoeffDC = 0;	// sample variance of the DC coefficients produced by the DCT
-	private double varCoeffAC = 0;  // sample variance of the AC coefficients produced by the DCT
-	private double[] sourceVals;
-	private double distortion = 0;
 	private Map<Integer, COSQ> cosqs;
+	private transient volatile COSQ[] blockQuantizers; // built from cosqs on first use
+	private transient volatile LegacySession lastSession; // used only by the List/BitBuffer methods below
+	private transient volatile TransformType transformType; // null means JTRANSFORMS
 
 
+	/**
+	 * A Coder only holds trained quantizer state, so once constructed it can encode and decode any
+	 * number of images concurrently. The statistics of each image travel in its EncodedImage.
+	 * @param cosqs A Map from COSQ rates to COSQ objects, with the DC quantizer under key -1.
+	 * @param coderRate Rate of the coder.
+	 */
 	public Coder(Map<Integer, COSQ> cosqs, int coderRate) {
 		this.cosqs = cosqs;
 		this.coderRate = coderRate;
@@ -41,227 +46,632 @@ public class Coder implements java.io.Serializable {
 	/**
 	 * Encodes the image.
 	 * @param filename The filename of the image to be encoded.
-	 * @return The encoded data, as a List of Bytes.
+	 * @return The encoded image.
 	 */
-	public List<Byte> encodeImage(String filename) {
-		double[][] grayScalePixelValues = ImageManager.getGrayScaleValuesFromFilename(filename);
-		int imageHeight = grayScalePixelValues.length;
-        int imageWidth = grayScalePixelValues[0].length;
-		double[] imageBlockCoeffs = new double[BLOCK_SIZE * BLOCK_SIZE]; // required since DCT is applied in-place
+	public EncodedImage encode(String filename) {
+		BufferedImage image = ImageManager.getImageFromFilename(filename);
+		return encode(ImageManager.getGrayScaleValues(image, null), image.getHeight(), image.getWidth(), null);
+	} // end encode()
+	
+	/**
+	 * Encodes the image.
+	 * @param grayScalePixelValues The grayscale value of each pixel, indexed [row][column].
+	 * @return The encoded image.
+	 */
+	public EncodedImage encode(double[][] grayScalePixelValues) {
+		return encode(grayScalePixelValues, null);
+	} // end encode(double[][])
+	
+	/**
+	 * Encodes the image, splitting the rows of blocks across an executor.
+	 * Every row of blocks is transformed, summed and quantized on its own, and the partial results
+	 * are combined in block order, so the output is bit-identical whatever the executor.
+	 * @param grayScalePixelValues The grayscale value of each pixel, indexed [row][column].
+	 * @param executor Executor that runs the bands of blocks, or null to encode on the calling thread.
+	 * @return The encoded image.
+	 */
+	public EncodedImage encode(double[][] grayScalePixelValues, ExecutorService executor) {
+		return encode(ImageManager.toRowMajor(grayScalePixelValues), grayScalePixelValues.length, grayScalePixelValues[0].length, executor);
+	} // end encode(double[][], ExecutorService)
+	
+	/**
+	 * Encodes the image, splitting the rows of blocks across an executor. See encode(double[][], ExecutorService).
+	 * @param grayScalePixelValues The grayscale value of each pixel, in row-major order. It is not modified.
+	 * @param imageHeight The height of the image, in pixels.
+	 * @param imageWidth The width of the image, in pixels.
+	 * @param executor Executor that runs the bands of blocks, or null to encode on the calling thread.
+	 * @return The encoded image.
+	 */
+	public EncodedImage encode(double[] grayScalePixelValues, int imageHeight, int imageWidth, ExecutorService executor) {
+		return quantize(transform(grayScalePixelValues, imageHeight, imageWidth, executor), executor);
+	} // end encode(double[], int, int, ExecutorService)
+	
+	/**
+	 * The first half of encode: applies the block DCT and computes the statistics of the coefficients.
+	 * @param grayScalePixelValues The grayscale value of each pixel, in row-major order. It is not modified.
+	 * @param imageHeight The height of the image, in pixels.
+	 * @param imageWidth The width of the image, in pixels.
+	 * @param executor Executor that runs the bands of blocks, or null to transform on the calling thread.
+	 * @return The DCT coefficients and their statistics.
+	 */
+	public TransformedImage transform(double[] grayScalePixelValues, int imageHeight, int imageWidth, ExecutorService executor) {
 		double[] imageCoefficients = new double[imageHeight * imageWidth]; // row-major form
-		double[] normBlockCoeffs = new double[BLOCK_SIZE * BLOCK_SIZE];
-		List<Byte> encodedData = new ArrayList<Byte>(imageHeight * imageWidth);
 		int rowFactor = imageHeight / BLOCK_SIZE; // number of NxN blocks per row
 		int colFactor = imageWidth / BLOCK_SIZE; // number of NxN blocks per column
-		sourceVals = new double[512 * 512];
+		int numPixelDC = rowFactor * colFactor; // number of DC pixels
+		int numPixelAC = imageCoefficients.length - numPixelDC; // number of AC pixels
+		double[] rowSumsDC = new double[rowFactor]; // partial sums for each row of blocks
+		double[] rowSumsAC = new double[rowFactor];
+		TransformType transformType = getTransformType();
+		boolean pruned = transformType == TransformType.PRUNED;
+		// when pruned, the mean and squared deviations of each row of blocks, merged into the image's after the DCT
+		double[] rowMeansDC = pruned ? new double[rowFactor] : null;
+		double[] rowMeansAC = pruned ? new double[rowFactor] : null;
+		double[] rowDevsDC = pruned ? new double[rowFactor] : null;
+		double[] rowDevsAC = pruned ? new double[rowFactor] : null;
 		
-		// apply DCT on NxN grids
-		DoubleDCT_2D dct = new DoubleDCT_2D(BLOCK_SIZE, BLOCK_SIZE);
-		for (int i = 0; i < rowFactor; i++) {
-			for (int j = 0; j < colFactor; j++) {
-				// get pixelValues into NxN array
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						imageBlockCoeffs[row * BLOCK_SIZE + col] = grayScalePixelValues[i * BLOCK_SIZE + row][j * BLOCK_SIZE + col];
-						sourceVals[(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE) + col] = grayScalePixelValues[i * BLOCK_SIZE + row][j * BLOCK_SIZE + col];
+		// apply DCT on NxN grids, accumulating the sample mean of the dct coefficients as we go
+		forEachBand(rowFactor, executor, (band, firstRow, endRow) -> {
+			BlockTransform transform = newBlockTransform(transformType);
+			double[] blockCoeffs = new double[BLOCK_SIZE * BLOCK_SIZE]; // required since DCT is applied in-place
+			for (int i = firstRow; i < endRow; i++) {
+				double meanDC = 0, meanAC = 0, devDC = 0, devAC = 0; // moments of this row of blocks so far, when pruned
+				for (int j = 0; j < colFactor; j++) {
+					// get pixelValues into NxN array
+					for (int row = 0; row < BLOCK_SIZE; row++)
+						System.arraycopy(grayScalePixelValues, (i * BLOCK_SIZE + row) * imageWidth + j * BLOCK_SIZE, blockCoeffs, row * BLOCK_SIZE, BLOCK_SIZE);
+					double blockSum = 0, blockEnergyAC = 0;
+					if (pruned) { // the dropped coefficients are not computed, so find their moments in the pixel domain
+						blockSum = ((PrunedBlockTransform) transform).getCoefficientSum(blockCoeffs);
+						double blockMean = 0;
+						for (double pixel : blockCoeffs)
+							blockMean += pixel / blockCoeffs.length;
+						for (double pixel : blockCoeffs) // by Parseval, the sum of the squared AC coefficients
+							blockEnergyAC += (pixel - blockMean) * (pixel - blockMean);
 					}
-				}
-				dct.forward(imageBlockCoeffs, true); // performs the dct in-place on the given array	
-				// store coefficients in row-major form
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						imageCoefficients[(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE) + col] = imageBlockCoeffs[row * BLOCK_SIZE + col];
+					transform.forward(blockCoeffs); // performs the dct in-place on the given array	
+					// store coefficients in row-major form
+					for (int row = 0; row < BLOCK_SIZE; row++) {
+						System.arraycopy(blockCoeffs, row * BLOCK_SIZE, imageCoefficients,
+								(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE), BLOCK_SIZE);
+					}
+					if (pruned) {
+						double coeffDC = blockCoeffs[0];
+						double sumAC = blockSum - coeffDC;
+						rowSumsDC[i] += coeffDC / numPixelDC;
+						rowSumsAC[i] += sumAC / numPixelAC;
+						
+						// merge the block into the row: one DC coefficient, and BLOCK_SIZE * BLOCK_SIZE - 1 AC coefficients
+						int numAC = BLOCK_SIZE * BLOCK_SIZE - 1;
+						double deltaDC = coeffDC - meanDC;
+						meanDC += deltaDC / (j + 1);
+						devDC += deltaDC * (coeffDC - meanDC);
+						double blockMeanAC = sumAC / numAC;
+						double blockDevAC = Math.max(0, blockEnergyAC - sumAC * blockMeanAC); // about the block's AC mean
+						double deltaAC = blockMeanAC - meanAC;
+						meanAC += deltaAC / (j + 1);
+						devAC += blockDevAC + deltaAC * deltaAC * numAC * j / (j + 1);
+					} else {
+						rowSumsDC[i] += blockCoeffs[0] / numPixelDC;
+						for (int index = 1; index < BLOCK_SIZE * BLOCK_SIZE; index++)
+							rowSumsAC[i] += blockCoeffs[index] / numPixelAC;
 					}
 				}
+				if (pruned) {
+					rowMeansDC[i] = meanDC;
+					rowMeansAC[i] = meanAC;
+					rowDevsDC[i] = devDC;
+					rowDevsAC[i] = devAC;
+				}
 			}
-		}
-		calcSampleMean(imageCoefficients, rowFactor, colFactor);		// compute the sample mean of the dct coefficients
-		calcSampleVariance(imageCoefficients, rowFactor, colFactor);	// compute the sample variance of the dct coefficients
-		// normalize and encode blocks
+		});
+		double meanCoeffDC = 0, meanCoeffAC = 0;
 		for (int i = 0; i < rowFactor; i++) {
-			for (int j = 0; j < colFactor; j++) {
-				normBlockCoeffs = normalizeCoefficients(imageCoefficients, i, j, imageWidth);
-				encodedData.addAll(encodeCoefficients(normBlockCoeffs)); // encode the block
+			meanCoeffDC += rowSumsDC[i];
+			meanCoeffAC += rowSumsAC[i];
+		}
+		
+		// compute the sample variance of the dct coefficients
+		double varCoeffDC = 0, varCoeffAC = 0;
+		if (pruned) { // merge the rows with the pairwise update of Chan et al., since only the kept coefficients are stored
+			double meanDC = 0, meanAC = 0, devDC = 0, devAC = 0;
+			for (int i = 0; i < rowFactor; i++) {
+				double deltaDC = rowMeansDC[i] - meanDC, deltaAC = rowMeansAC[i] - meanAC;
+				meanDC += deltaDC / (i + 1);
+				meanAC += deltaAC / (i + 1);
+				devDC += rowDevsDC[i] + deltaDC * deltaDC * colFactor * i / (i + 1);
+				devAC += rowDevsAC[i] + deltaAC * deltaAC * ((double) numPixelAC / rowFactor) * i / (i + 1);
+			}
+			varCoeffDC = devDC / numPixelDC;
+			varCoeffAC = devAC / numPixelAC;
+		} else {
+			double[] means = {meanCoeffDC, meanCoeffAC};
+			forEachBand(rowFactor, executor, (band, firstRow, endRow) -> {
+				for (int i = firstRow; i < endRow; i++)
+					calcBlockRowVariance(imageCoefficients, i, colFactor, numPixelAC, means[0], means[1], rowSumsDC, rowSumsAC);
+			});
+			for (int i = 0; i < rowFactor; i++) {
+				varCoeffDC += rowSumsDC[i];
+				varCoeffAC += rowSumsAC[i];
 			}
 		}
-		return encodedData;
-	} // end encodeImage()
+		ImageStatistics statistics = new ImageStatistics(meanCoeffDC, meanCoeffAC, varCoeffDC, varCoeffAC);
+		return new TransformedImage(imageCoefficients, statistics, imageHeight, imageWidth);
+	} // end transform()
+	
+	/**
+	 * The second half of encode: normalizes and quantizes the coefficients of every block.
+	 * @param transformedImage The output of transform().
+	 * @param executor Executor that runs the bands of blocks, or null to quantize on the calling thread.
+	 * @return The encoded image.
+	 */
+	public EncodedImage quantize(TransformedImage transformedImage, ExecutorService executor) {
+		double[] imageCoefficients = transformedImage.getCoefficients();
+		ImageStatistics statistics = transformedImage.getStatistics();
+		int imageHeight = transformedImage.getImageHeight();
+		int imageWidth = transformedImage.getImageWidth();
+		int rowFactor = imageHeight / BLOCK_SIZE;
+		int colFactor = imageWidth / BLOCK_SIZE;
+		
+		// normalize and encode blocks, each band into its own buffer
+		int numBands = getNumBands(rowFactor, executor);
+		BitBuffer[] encodedBands = new BitBuffer[numBands];
+		forEachBand(rowFactor, executor, (band, firstRow, endRow) -> {
+			double[] blockCoeffs = new double[BLOCK_SIZE * BLOCK_SIZE]; // reused for every block, since normalization is in-place
+			BitBuffer encodedBand = new BitBuffer((long) (endRow - firstRow) * BLOCK_SIZE * imageWidth);
+			for (int i = firstRow; i < endRow; i++) {
+				for (int j = 0; j < colFactor; j++) {
+					normalizeCoefficients(imageCoefficients, i, j, imageWidth, statistics, blockCoeffs);
+					encodeBlock(blockCoeffs, encodedBand); // encode the block
+				}
+			}
+			encodedBands[band] = encodedBand;
+		});
+		BitBuffer encodedData = encodedBands[0];
+		if (numBands > 1) {
+			encodedData = new BitBuffer((long) imageHeight * imageWidth);
+			for (BitBuffer encodedBand : encodedBands)
+				encodedData.append(encodedBand);
+		}
+		return new EncodedImage(encodedData, statistics, imageHeight, imageWidth);
+	} // end quantize()
 	
 	/**
 	 * Decodes an encoded image into a BufferedImage.
-	 * @param encodedData The encoded image data.
-	 * @param imageHeight The height of the image to be decoded, in pixels.
-	 * @param imageWidth The width of the image to be decoded, in pixels.
+	 * @param encodedImage The encoded image.
 	 * @return A decoded BufferedImage.
 	 */
-	public BufferedImage decodeImage(List<Byte> encodedData, int imageHeight, int imageWidth) {
+	public BufferedImage decode(EncodedImage encodedImage) {
+		return decode(encodedImage, null);
+	} // end decode()
+	
+	/**
+	 * Decodes an encoded image into a BufferedImage, splitting the rows of blocks across an executor.
+	 * @param encodedImage The encoded image.
+	 * @param executor Executor that runs the bands of blocks, or null to decode on the calling thread.
+	 * @return A decoded BufferedImage.
+	 */
+	public BufferedImage decode(EncodedImage encodedImage, ExecutorService executor) {
+		return ImageManager.getBufferedImageFromGrayScaleValues(decodePixels(encodedImage, executor), encodedImage.getImageHeight());
+	} // end decode(EncodedImage, ExecutorService)
+	
+	/**
+	 * Decodes an encoded image into grayscale pixel values, splitting the rows of blocks across an executor.
+	 * Every block takes the same number of bits, so the bit offset of each band is known up front
+	 * and each band writes straight into its own region of the output pixels.
+	 * @param encodedImage The encoded image.
+	 * @param executor Executor that runs the bands of blocks, or null to decode on the calling thread.
+	 * @return The grayscale value of each pixel, in row-major order.
+	 */
+	public double[] decodePixels(EncodedImage encodedImage, ExecutorService executor) {
+		BitBuffer encodedData = encodedImage.getEncodedData();
+		ImageStatistics statistics = encodedImage.getStatistics();
+		int imageHeight = encodedImage.getImageHeight();
+		int imageWidth = encodedImage.getImageWidth();
 		int blockArea = BLOCK_SIZE * BLOCK_SIZE;
-		List<Double> decodedBlock;
-		double[] dctBlock = new double[blockArea];
 		double[] greyScalePixelValues = new double[imageHeight * imageWidth];
-		DoubleDCT_2D dct = new DoubleDCT_2D(BLOCK_SIZE, BLOCK_SIZE);
-		
 		int rowFactor = imageHeight / BLOCK_SIZE;
 		int colFactor = imageWidth / BLOCK_SIZE;
+		long bitsPerBlock = getBitsPerBlock();
+		double stdDevDC = Math.sqrt(statistics.getVarCoeffDC());
+		double stdDevAC = Math.sqrt(statistics.getVarCoeffAC());
 		
 		// apply inverse DCT for each NxN grids
-		int bitsDecoded = 0;
-		for (int i = 0; i < rowFactor; i++) {
-			for (int j = 0; j < colFactor; j++) {
-				// get coefficients for NxN block
-				decodedBlock = decodeCoefficients(encodedData.subList(bitsDecoded, bitsDecoded + blockArea));
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						if (row == 0 && col == 0)
-							dctBlock[0] = Math.sqrt(varCoeffDC) * decodedBlock.get(0) + meanCoeffDC; // de-normalize DC coefficient
-						else
-							dctBlock[row * BLOCK_SIZE + col] =  Math.sqrt(varCoeffAC) * decodedBlock.get(row * BLOCK_SIZE + col) + meanCoeffAC; // de-normalize AC coefficients
+		forEachBand(rowFactor, executor, (band, firstRow, endRow) -> {
+			double[] dctBlock = new double[blockArea];
+			BlockTransform transform = newBlockTransform();
+			BitReader reader = new BitReader(encodedData, firstRow * colFactor * bitsPerBlock);
+			for (int i = firstRow; i < endRow; i++) {
+				for (int j = 0; j < colFactor; j++) {
+					// get coefficients for NxN block
+					decodeBlock(reader, dctBlock);
+					dctBlock[0] = stdDevDC * dctBlock[0] + statistics.getMeanCoeffDC(); // de-normalize DC coefficient
+					for (int index = 1; index < blockArea; index++)
+						dctBlock[index] = stdDevAC * dctBlock[index] + statistics.getMeanCoeffAC(); // de-normalize AC coefficients
+					
+					transform.inverse(dctBlock); // performs the inverse dct in-place on the given array
+					
+					// imports the block into the dctCoeffs matrix, converting to row-major form
+					for (int row = 0; row < BLOCK_SIZE; row++) {
+						for (int col = 0; col < BLOCK_SIZE; col++)
+							greyScalePixelValues[(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE) + col] = dctBlock[row * BLOCK_SIZE + col];
 					}
 				}
-				
-				dct.inverse(dctBlock, true); // performs the inverse dct in-place on the given array
-				
-				// imports the block into the dctCoeffs matrix, converting to row-major form
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						greyScalePixelValues[(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE) + col] = dctBlock[row * BLOCK_SIZE + col];
-						distortion += Math.pow(sourceVals[((i * BLOCK_SIZE) + row) * imageWidth + j * BLOCK_SIZE + col] - greyScalePixelValues[(((i * BLOCK_SIZE) + row) * imageWidth) + (j * BLOCK_SIZE) + col], 2) / (512 * 512);
-					}
-				}
-				bitsDecoded += blockArea;
 			}
-		}
-		System.out.println("PSNR = " + (20 * Math.log10(255) - 10 * Math.log10(distortion)) + "dB");
-		return ImageManager.getBufferedImageFromGrayScaleValues(greyScalePixelValues, imageHeight);
+		});
+		return greyScalePixelValues;
+	} // end decodePixels()
+	
+	/**
+	 * Computes the peak signal-to-noise ratio of a reconstruction, for 8-bit pixels.
+	 * @param sourceVals The original pixel values.
+	 * @param reconstructedVals The reconstructed pixel values, in the same order.
+	 * @return PSNR in decibels.
+	 */
+	public static double computePSNR(double[] sourceVals, double[] reconstructedVals) {
+		double distortion = 0;
+		for (int index = 0; index < sourceVals.length; index++)
+			distortion += Math.pow(sourceVals[index] - reconstructedVals[index], 2) / sourceVals.length;
+		return 20 * Math.log10(255) - 10 * Math.log10(distortion);
+	} // end computePSNR()
+
+	/**
+	 * Encodes the image. The image statistics are kept for the next call to decodeImage, so this
+	 * form must not be shared between threads; use encode() and decode() instead.
+	 * @param filename The filename of the image to be encoded.
+	 * @return The encoded data, as a List of Bytes.
+	 */
+	public List<Byte> encodeImage(String filename) {
+		return encodeImageToBits(filename).toList();
+	} // end encodeImage()
+	
+	/**
+	 * Encodes the image into a packed bit stream. See encodeImage().
+	 * @param filename The filename of the image to be encoded.
+	 * @return The encoded data, as a BitBuffer.
+	 */
+	public BitBuffer encodeImageToBits(String filename) {
+		return encodeImageToBits(ImageManager.getGrayScaleValuesFromFilename(filename));
+	} // end encodeImageToBits()
+	
+	/**
+	 * Encodes the image into a packed bit stream. See encodeImage().
+	 * @param grayScalePixelValues The grayscale value of each pixel, indexed [row][column].
+	 * @return The encoded data, as a BitBuffer.
+	 */
+	public BitBuffer encodeImageToBits(double[][] grayScalePixelValues) {
+		return encodeImageToBits(grayScalePixelValues, null);
+	} // end encodeImageToBits(double[][])
+	
+	/**
+	 * Encodes the image into a packed bit stream, splitting the rows of blocks across an executor.
+	 * See encodeImage().
+	 * @param grayScalePixelValues The grayscale value of each pixel, indexed [row][column].
+	 * @param executor Executor that runs the bands of blocks, or null to encode on the calling thread.
+	 * @return The encoded data, as a BitBuffer.
+	 */
+	public BitBuffer encodeImageToBits(double[][] grayScalePixelValues, ExecutorService executor) {
+		EncodedImage encodedImage = encode(grayScalePixelValues, executor);
+		lastSession = new LegacySession(encodedImage.getStatistics(), ImageManager.toRowMajor(grayScalePixelValues));
+		return encodedImage.getEncodedData();
+	} // end encodeImageToBits(double[][], ExecutorService)
+	
+	/**
+	 * Decodes an encoded image into a BufferedImage, using the statistics of the last image encoded
+	 * by encodeImage(), and prints its PSNR.
+	 * @param encodedData The encoded image data.
+	 * @param imageHeight The height of the image to be decoded, in pixels.
+	 * @param imageWidth The width of the image to be decoded, in pixels.
+	 * @return A decoded BufferedImage.
+	 */
+	public BufferedImage decodeImage(List<Byte> encodedData, int imageHeight, int imageWidth) {
+		return decodeImage(BitBuffer.fromList(encodedData), imageHeight, imageWidth);
 	} // end decodeImage()
 	
+	/**
+	 * Decodes an encoded image into a BufferedImage. See decodeImage(List, int, int).
+	 * @param encodedData The encoded image data, as a packed bit stream.
+	 * @param imageHeight The height of the image to be decoded, in pixels.
+	 * @param imageWidth The width of the image to be decoded, in pixels.
+	 * @return A decoded BufferedImage.
+	 */
+	public BufferedImage decodeImage(BitBuffer encodedData, int imageHeight, int imageWidth) {
+		return decodeImage(encodedData, imageHeight, imageWidth, null);
+	} // end decodeImage(BitBuffer)
+	
+	/**
+	 * Decodes an encoded image into a BufferedImage, splitting the rows of blocks across an executor.
+	 * See decodeImage(List, int, int).
+	 * @param encodedData The encoded image data, as a packed bit stream.
+	 * @param imageHeight The height of the image to be decoded, in pixels.
+	 * @param imageWidth The width of the image to be decoded, in pixels.
+	 * @param executor Executor that runs the bands of blocks, or null to decode on the calling thread.
+	 * @return A decoded BufferedImage.
+	 */
+	public BufferedImage decodeImage(BitBuffer encodedData, int imageHeight, int imageWidth, ExecutorService executor) {
+		LegacySession session = lastSession;
+		if (session == null)
+			throw new IllegalStateException("decodeImage needs the statistics of a previous encodeImage call");
+		double[] greyScalePixelValues = decodePixels(new EncodedImage(encodedData, session.statistics, imageHeight, imageWidth), executor);
+		if (session.sourceVals.length == greyScalePixelValues.length)
+			System.out.println("PSNR = " + computePSNR(session.sourceVals, greyScalePixelValues) + "dB");
+		return ImageManager.getBufferedImageFromGrayScaleValues(greyScalePixelValues, imageHeight);
+	} // end decodeImage(BitBuffer, ExecutorService)
+	
 	/**
 	 * Encodes a BLOCK_SIZE by BLOCK_SIZE array of image data.
-	 * @param dctData The data given after applying the discrete cosine transform.
-	 * @return The encoded data, as a List of Bytes.
+	 * @param dctData The normalized DCT coefficients of the block in row-major form.
+	 * @param encodedData The bit stream the encoded block is appended to.
 	 */
-	private List<Byte> encodeCoefficients(double[] dctData) {
-		List<Byte> encodedData = new ArrayList<>();
-		for (int row = 0; row < BLOCK_SIZE; row++) {
-			for (int col = 0; col < BLOCK_SIZE; col++) {
-				if ((row == 0) && (col == 0))
-					encodedData.addAll(cosqs.get(-1).encodeSourceWord(dctData[row * BLOCK_SIZE + col])); // dc pixel
-				else if (fixedBitAllocation[row][col] != 0) // make sure we are supposed to encode the value
-					encodedData.addAll(cosqs.get(fixedBitAllocation[row][col] * coderRate).encodeSourceWord(dctData[row * BLOCK_SIZE + col]));	
-			}
+	public void encodeBlock(double[] dctData, BitBuffer encodedData) {
+		COSQ[] blockQuantizers = getBlockQuantizers();
+		for (int index = 0; index < BLOCK_SIZE * BLOCK_SIZE; index++) {
+			if (blockQuantizers[index] != null) // make sure we are supposed to encode the value
+				blockQuantizers[index].encodeSourceWord(dctData[index], encodedData);
 		}
-		return encodedData;
-	} // end encode()
+	} // end encodeBlock()
 
 	/**
-	 * Decodes a given piece of encoded data.
-	 * @param encodedData The encoded data, as a List of Bytes.
-	 * @return The List of Doubles to be fed into the inverse DCT.
+	 * Decodes one block of encoded data into its normalized DCT coefficients. Coefficients that
+	 * are not encoded are set to zero. No memory is allocated.
+	 * @param encodedData Reader positioned at the start of the block. It is left at the start of the next block.
+	 * @param decodedBlock Array of at least BLOCK_SIZE * BLOCK_SIZE elements receiving the coefficients in row-major form.
 	 */
-	private List<Double> decodeCoefficients(List<Byte> encodedData) {
-		List<Double> decodedData = new ArrayList<>();
-		
-		int bitsDecoded = 0;
-		for (int row = 0; row < BLOCK_SIZE; row++) {
-			for (int col = 0; col < BLOCK_SIZE; col++) {
-				if ((row == 0) && (col == 0)) {
-					decodedData.add(cosqs.get(-1).decodeCodeWord(encodedData.subList(bitsDecoded, bitsDecoded + fixedBitAllocation[0][0] * coderRate))); // dc pixel
-					bitsDecoded += fixedBitAllocation[0][0] * coderRate;
-				}
-				else if (fixedBitAllocation[row][col] != 0) {
-					decodedData.add(cosqs.get(fixedBitAllocation[row][col] * coderRate).
-							decodeCodeWord(encodedData.subList(bitsDecoded, bitsDecoded + (fixedBitAllocation[row][col] * coderRate))));
-					bitsDecoded += fixedBitAllocation[row][col] * coderRate;
-				}
-				else
-					decodedData.add((double) 0); // if we didn't encode that pixel's value
-			}
+	public void decodeBlock(BitReader encodedData, double[] decodedBlock) {
+		COSQ[] blockQuantizers = getBlockQuantizers();
+		for (int index = 0; index < BLOCK_SIZE * BLOCK_SIZE; index++) {
+			if (blockQuantizers[index] != null)
+				decodedBlock[index] = blockQuantizers[index].decodeCodeWord(encodedData);
+			else
+				decodedBlock[index] = 0; // if we didn't encode that pixel's value
 		}
-		return decodedData;
-	} // end decode()
+	} // end decodeBlock()
 
 	/**
-	 * Sets the coder rate.
+	 * Sets the coder rate. This changes which COSQs are used, so it must not be called while the
+	 * Coder is shared between threads.
 	 * @param coderRate The new coder rate.
 	 */
 	public void setCoderRate(int coderRate) {
 		this.coderRate = coderRate;
+		this.blockQuantizers = null;
 	} // end setCoderRate()
 	
+	public int getCoderRate() {
+		return coderRate;
+	} // end coderRate accessor
+	
 	/**
-	 * Calculate the sample mean of the DCT coefficients.
-	 * @param coefficients DCT coefficients.
-	 * @param rowFactor	Number of NxN blocks spanning the height of the image.
-	 * @param colFactor Number of NxN blocks spanning the width of the image.
+	 * Selects the block DCT used to encode and decode. The pruned transform only computes the
+	 * coefficients that are encoded, and gives the same images up to rounding. This must not be
+	 * called while the Coder is shared between threads.
+	 * @param transformType The block DCT to use.
 	 */
-	private void calcSampleMean(double[] coefficients, int rowFactor, int colFactor) {
-		int imageWidth = BLOCK_SIZE * colFactor; // width of image (pixels)
-		int numPixelDC = rowFactor * colFactor; // number of DC pixels
-		int numPixelAC = coefficients.length  - numPixelDC; // number of AC pixels
-		int index; // index in row-major form
-		for (int i = 0; i < rowFactor; i++) {
-			for (int j = 0; j < colFactor; j++) {
-				// Iterate through the NxN block
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						index = ((i * BLOCK_SIZE) + row) * imageWidth + j * BLOCK_SIZE + col;
-						if (row == 0 && col == 0)
-							meanCoeffDC += coefficients[index] / numPixelDC;
-						else
-							meanCoeffAC += coefficients[index] / numPixelAC;
-					}
+	public void setTransformType(TransformType transformType) {
+		this.transformType = transformType;
+	} // end setTransformType()
+	
+	public TransformType getTransformType() {
+		TransformType type = transformType;
+		return type == null ? TransformType.JTRANSFORMS : type;
+	} // end transformType accessor
+	
+	/**
+	 * Creates the block DCT selected by setTransformType. Each thread needs its own.
+	 * @return A new BlockTransform.
+	 */
+	public BlockTransform newBlockTransform() {
+		return newBlockTransform(getTransformType());
+	} // end newBlockTransform()
+	
+	private BlockTransform newBlockTransform(TransformType type) {
+		if (type == TransformType.PRUNED) {
+			COSQ[] quantizers = getBlockQuantizers();
+			boolean[] keptCoefficients = new boolean[BLOCK_SIZE * BLOCK_SIZE];
+			for (int index = 0; index < keptCoefficients.length; index++)
+				keptCoefficients[index] = quantizers[index] != null;
+			return new PrunedBlockTransform(BLOCK_SIZE, keptCoefficients);
+		}
+		return new JTransformsBlockTransform(BLOCK_SIZE);
+	} // end newBlockTransform(TransformType)
+	
+	/**
+	 * @return The COSQs of this coder, keyed by rate with the DC quantizer under key -1.
+	 */
+	public Map<Integer, COSQ> getCOSQs() {
+		return Collections.unmodifiableMap(cosqs);
+	} // end getCOSQs()
+	
+	/**
+	 * @return The width and height of the DCT blocks, in pixels.
+	 */
+	public static int getBlockSize() {
+		return BLOCK_SIZE;
+	} // end getBlockSize()
+	
+	/**
+	 * @return A copy of the bit allocation matrix, before it is multiplied by the coder rate.
+	 */
+	public static int[][] getBitAllocation() {
+		int[][] bitAllocation = new int[BLOCK_SIZE][];
+		for (int row = 0; row < BLOCK_SIZE; row++)
+			bitAllocation[row] = fixedBitAllocation[row].clone();
+		return bitAllocation;
+	} // end getBitAllocation()
+	
+	/**
+	 * @return The number of bits used to encode each BLOCK_SIZE by BLOCK_SIZE block.
+	 */
+	public int getBitsPerBlock() {
+		int bitsPerBlock = 0;
+		for (COSQ quantizer : getBlockQuantizers()) {
+			if (quantizer != null)
+				bitsPerBlock += quantizer.getNumBits();
+		}
+		return bitsPerBlock;
+	} // end getBitsPerBlock()
+	
+	/**
+	 * @param index Position of a coefficient in a block, in row-major order.
+	 * @return The COSQ that encodes the coefficient, or null if it is not encoded.
+	 */
+	public COSQ getBlockQuantizer(int index) {
+		return getBlockQuantizers()[index];
+	} // end getBlockQuantizer()
+	
+	/**
+	 * Looks up the COSQ used for each coefficient of a block, so the per-coefficient loops do not
+	 * go through the Map.
+	 * @return Array in row-major block order, with null where the coefficient is not encoded.
+	 */
+	private COSQ[] getBlockQuantizers() {
+		COSQ[] quantizers = blockQuantizers;
+		if (quantizers == null) {
+			quantizers = new COSQ[BLOCK_SIZE * BLOCK_SIZE];
+			for (int row = 0; row < BLOCK_SIZE; row++) {
+				for (int col = 0; col < BLOCK_SIZE; col++) {
+					if ((row == 0) && (col == 0))
+						quantizers[0] = cosqs.get(-1); // dc pixel
+					else if (fixedBitAllocation[row][col] != 0)
+						quantizers[row * BLOCK_SIZE + col] = cosqs.get(fixedBitAllocation[row][col] * coderRate);
 				}
 			}
+			blockQuantizers = quantizers; // racing threads build identical arrays, so either may win
 		}
-	} // end calcSampleMean()
+		return quantizers;
+	} // end getBlockQuantizers()
 	
 	/**
-	 * Calculate the sample variance of the DCT coefficients.
+	 * Calculate the contribution of one row of blocks to the sample variance of the DCT coefficients.
 	 * @param coefficients DCT coefficients.
-	 * @param rowFactor	Number of NxN blocks spanning the height of the image.
+	 * @param blockRow Row index of the blocks.
 	 * @param colFactor Number of NxN blocks spanning the width of the image.
+	 * @param numPixelAC Number of AC pixels in the image.
+	 * @param meanCoeffDC Sample mean of the DC coefficients.
+	 * @param meanCoeffAC Sample mean of the AC coefficients.
+	 * @param rowVarsDC Receives the DC contribution at index blockRow.
+	 * @param rowVarsAC Receives the AC contribution at index blockRow.
 	 */
-	private void calcSampleVariance(double[] coefficients, int rowFactor, int colFactor) {
+	private static void calcBlockRowVariance(double[] coefficients, int blockRow, int colFactor, int numPixelAC,
+			double meanCoeffDC, double meanCoeffAC, double[] rowVarsDC, double[] rowVarsAC) {
 		int imageWidth = BLOCK_SIZE * colFactor; // width of image (pixels)
-		int numPixelDC = rowFactor * colFactor; // number of DC pixels
-		int numPixelAC = coefficients.length - numPixelDC; // number of AC pixels
+		int numPixelDC = coefficients.length - numPixelAC; // number of DC pixels
+		double varDC = 0;
+		double varAC = 0;
 		int index; // index in row-major form
-		for (int i = 0; i < rowFactor; i++) {
-			for (int j = 0; j < colFactor; j++) {
-				// Iterate through the NxN block
-				for (int row = 0; row < BLOCK_SIZE; row++) {
-					for (int col = 0; col < BLOCK_SIZE; col++) {
-						index = ((i * BLOCK_SIZE) + row) * imageWidth + j * BLOCK_SIZE + col;
-						if (row == 0 && col == 0)
-							varCoeffDC += Math.pow(coefficients[index] - meanCoeffDC, 2) / numPixelDC;
-						else
-							varCoeffAC += Math.pow(coefficients[index] - meanCoeffAC, 2) / numPixelAC;
-					}
+		for (int j = 0; j < colFactor; j++) {
+			// Iterate through the NxN block
+			for (int row = 0; row < BLOCK_SIZE; row++) {
+				for (int col = 0; col < BLOCK_SIZE; col++) {
+					index = ((blockRow * BLOCK_SIZE) + row) * imageWidth + j * BLOCK_SIZE + col;
+					if (row == 0 && col == 0)
+						varDC += Math.pow(coefficients[index] - meanCoeffDC, 2) / numPixelDC;
+					else
+						varAC += Math.pow(coefficients[index] - meanCoeffAC, 2) / numPixelAC;
 				}
 			}
 		}
-	} // end calcSampleVariance()
+		rowVarsDC[blockRow] = varDC;
+		rowVarsAC[blockRow] = varAC;
+	} // end calcBlockRowVariance()
 	
 	/**
-	 * Normalize the DCT coefficients.
+	 * Runs a task over contiguous bands of block rows. With an executor the bands run concurrently
+	 * and this method waits for all of them; otherwise a single band covering every row runs on
+	 * the calling thread.
+	 * @param numRows Number of block rows.
+	 * @param executor Executor to run the bands on, or null.
+	 * @param task Task run once per band.
+	 */
+	private static void forEachBand(int numRows, ExecutorService executor, BandTask task) {
+		int numBands = getNumBands(numRows, executor);
+		if (numBands == 1) {
+			task.run(0, 0, numRows);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>(numBands);
+		for (int band = 0; band < numBands; band++) {
+			int bandIndex = band;
+			int firstRow = (int) ((long) numRows * band / numBands);
+			int endRow = (int) ((long) numRows * (band + 1) / numBands);
+			futures.add(executor.submit(() -> task.run(bandIndex, firstRow, endRow)));
+		}
+		boolean completed = false;
+		try {
+			for (Future<?> future : futures)
+				future.get();
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while coding image", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			if (!completed) { // the image has failed, so the other bands would only keep the executor busy
+				for (Future<?> future : futures)
+					future.cancel(true);
+			}
+		}
+	} // end forEachBand()
+	
+	private static int getNumBands(int numRows, ExecutorService executor) {
+		if (executor == null || numRows == 0)
+			return 1;
+		return Math.min(numRows, BANDS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+	} // end getNumBands()
+	
+	/**
+	 * The block DCTs a Coder can use.
+	 */
+	public enum TransformType {
+		JTRANSFORMS, // the full transform of JTransforms
+		PRUNED       // only the encoded coefficients, see PrunedBlockTransform
+	}
+	
+	/**
+	 * A unit of work over the block rows [firstRow, endRow).
+	 */
+	private interface BandTask {
+		void run(int band, int firstRow, int endRow);
+	}
+	
+	/**
+	 * What the older encodeImage/decodeImage methods remember between calls.
+	 */
+	private static class LegacySession {
+		private final ImageStatistics statistics;
+		private final double[] sourceVals;
+		
+		private LegacySession(ImageStatistics statistics, double[] sourceVals) {
+			this.statistics = statistics;
+			this.sourceVals = sourceVals;
+		}
+	}
+	
+	/**
+	 * Normalize the DCT coefficients of one block into a reusable block buffer.
 	 * @param coefficients DCT coefficients.
 	 * @param blockRow	Row index of the block being encoded.
 	 * @param blockCol  Column index of the block being encoded.
+	 * @param imageWidth Width of the image (pixels).
+	 * @param statistics Sample statistics of the DCT coefficients.
+	 * @param normCoeffs Array of BLOCK_SIZE * BLOCK_SIZE elements receiving the normalized coefficients.
 	 */
-	private double[] normalizeCoefficients(double[] coefficients, int blockRow, int blockCol, int imageWidth) {
-		double[] normCoeffs = new double[coefficients.length]; // normalized coefficients
-		int index; // index in row-major form
-		// get pixelValues into NxN array
+	private static void normalizeCoefficients(double[] coefficients, int blockRow, int blockCol, int imageWidth,
+			ImageStatistics statistics, double[] normCoeffs) {
+		double meanCoeffDC = statistics.getMeanCoeffDC();
+		double meanCoeffAC = statistics.getMeanCoeffAC();
+		double stdDevDC = Math.sqrt(statistics.getVarCoeffDC());
+		double stdDevAC = Math.sqrt(statistics.getVarCoeffAC());
+		int index = (blockRow * BLOCK_SIZE) * imageWidth + blockCol * BLOCK_SIZE; // index in row-major form
 		for (int row = 0; row < BLOCK_SIZE; row++) {
-			for (int col = 0; col < BLOCK_SIZE; col++) {
-				index = ((blockRow * BLOCK_SIZE) + row) * imageWidth + blockCol * BLOCK_SIZE + col;
-				if (row == 0 && col == 0)
-					normCoeffs[row * BLOCK_SIZE + col] = (coefficients[index] - meanCoeffDC) / Math.sqrt(varCoeffDC);
-				else
-					normCoeffs[row * BLOCK_SIZE + col] = (coefficients[index] - meanCoeffAC) / Math.sqrt(varCoeffAC);
-			}
+			for (int col = 0; col < BLOCK_SIZE; col++)
+				normCoeffs[row * BLOCK_SIZE + col] = (coefficients[index + col] - meanCoeffAC) / stdDevAC;
+			index += imageWidth;
 		}
-		return normCoeffs;
+		normCoeffs[0] = (coefficients[(blockRow * BLOCK_SIZE) * imageWidth + blockCol * BLOCK_SIZE] - meanCoeffDC) / stdDevDC;
 	} // end normalizeCoefficients()
 }
 
@@ -0,0 +1,36 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap allocated by Coder.encode for synthetic images of increasing size.
+ * The encoder needs a handful of image-sized buffers, so the bytes allocated per pixel should stay
+ * flat as the image grows. Any per-block allocation of an image-sized array would show up as a
+ * per-pixel cost that grows with the image.
+ */
+public class CoderAllocationBenchmark {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int[] IMAGE_SIZES = {128, 256, 512, 1024, 2048};
+	private static final int WARMUP_RUNS = 3;
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		Coder coder = new Coder(TestFixtures.uniformCOSQs(null), 1);
+
+		for (int size : IMAGE_SIZES) {
+			double[][] image = TestFixtures.syntheticImage(size, size, RNG_SEED);
+			for (int i = 0; i < WARMUP_RUNS; i++)
+				coder.encode(image);
+
+			long bytesBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long timeBefore = System.nanoTime();
+			coder.encode(image);
+			long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+			long elapsedMillis = (System.nanoTime() - timeBefore) / 1000000;
+
+			System.out.printf("%5dx%-5d allocated %,12d bytes (%.2f bytes/pixel) in %d ms%n",
+					size, size, allocatedBytes, (double) allocatedBytes / (size * size), elapsedMillis);
+		}
+	}
+
+}
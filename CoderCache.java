@@ -0,0 +1,214 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded cache of coders in front of CoderFactory, keyed by channel and coder rate.
+ * The least recently used coder is evicted once the cache is full. Concurrent misses for the same
+ * key share a single load: the first caller loads (or trains) the coder and the others wait for it.
+ * A coder that is still loading is never evicted, so the cache may hold more than its maximum size
+ * while loads are running, and shrinks back once they finish.
+ */
+public class CoderCache {
+
+	private final int maxSize;
+	private final Map<Key, CompletableFuture<Coder>> coders; // access order, for LRU
+	private final BiFunction<Channel, Integer, Coder> loader;
+
+	// metrics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong totalLoadNanos = new AtomicLong();
+
+
+	/**
+	 * @param maxSize Maximum number of coders kept in memory, must be positive.
+	 */
+	public CoderCache(int maxSize) {
+		this(maxSize, CoderCache::loadOrMakeCoder);
+	} // end constructor
+
+	/**
+	 * @param maxSize Maximum number of coders kept in memory, must be positive.
+	 * @param loader Loads or trains the coder for a channel and coder rate on a miss. A null coder fails the load.
+	 */
+	public CoderCache(int maxSize, BiFunction<Channel, Integer, Coder> loader) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+		this.maxSize = maxSize;
+		this.coders = new LinkedHashMap<>(16, 0.75f, true);
+		this.loader = loader;
+	} // end constructor(int, BiFunction)
+
+	/**
+	 * Returns the coder for a channel and rate, loading it from disk or training a new one if it is
+	 * not cached.
+	 * @param channel The channel the coder is trained for.
+	 * @param coderRate The overall rate of the coder.
+	 * @return The coder. It may be shared with other callers, so it must not be modified.
+	 */
+	public Coder getCoder(Channel channel, int coderRate) {
+		Key key = new Key(channel.getBitErrorRate(), channel.getBurstLevel(), channel.getMarkovOrder(), coderRate);
+		CompletableFuture<Coder> future;
+		boolean isLoader = false;
+		synchronized (coders) {
+			future = coders.get(key);
+			if (future == null) {
+				future = new CompletableFuture<>();
+				coders.put(key, future);
+				isLoader = true;
+				evictCompleted();
+			}
+		}
+
+		if (!isLoader) {
+			hits.incrementAndGet();
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw e;
+			}
+		}
+
+		misses.incrementAndGet();
+		long timeInit = System.nanoTime();
+		try {
+			Coder coder = loader.apply(channel, coderRate);
+			if (coder == null) // fail it like any other load, instead of caching null for good
+				throw new IllegalStateException("No coder loaded for BER " + channel.getBitErrorRate() + ", burst level " + channel.getBurstLevel()
+						+ ", order " + channel.getMarkovOrder() + ", coder rate " + coderRate);
+			future.complete(coder);
+			synchronized (coders) {
+				evictCompleted(); // entries kept while this load ran may now be over the limit
+			}
+			return coder;
+		} catch (RuntimeException | Error e) {
+			// forget the failed load so a later call can retry it
+			synchronized (coders) {
+				coders.remove(key, future);
+			}
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loads.incrementAndGet();
+			totalLoadNanos.addAndGet(System.nanoTime() - timeInit);
+		}
+	} // end getCoder()
+
+	/**
+	 * Removes the least recently used coders that have finished loading until the cache is back within
+	 * its maximum size, or only loading coders are left over it. Must hold the lock on coders.
+	 */
+	private void evictCompleted() {
+		Iterator<CompletableFuture<Coder>> eldestFirst = coders.values().iterator();
+		while (coders.size() > maxSize && eldestFirst.hasNext()) {
+			if (eldestFirst.next().isDone())
+				eldestFirst.remove();
+		}
+	} // end evictCompleted()
+
+	/**
+	 * The default loader: reads the coder saved for the channel, or trains one if there is none.
+	 */
+	private static Coder loadOrMakeCoder(Channel channel, int coderRate) {
+		Coder coder = CoderFactory.loadCoder(channel, coderRate);
+		if (coder == null)
+			coder = CoderFactory.makeCoder(channel, coderRate);
+		return coder;
+	} // end loadOrMakeCoder()
+
+	/**
+	 * Removes every coder from the cache. Metrics are kept.
+	 */
+	public void clear() {
+		synchronized (coders) {
+			coders.clear();
+		}
+	} // end clear()
+
+	/**
+	 * @return Number of coders currently cached, including ones still loading.
+	 */
+	public int size() {
+		synchronized (coders) {
+			return coders.size();
+		}
+	} // end size()
+
+	public int getMaxSize() {
+		return maxSize;
+	} // end maxSize accessor
+
+	/**
+	 * @return Number of requests served by a cached coder, or by waiting on another caller's load.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	} // end getHitCount()
+
+	/**
+	 * @return Number of requests that had to load or train a coder.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	} // end getMissCount()
+
+	/**
+	 * @return Number of loads finished, successful or not.
+	 */
+	public long getLoadCount() {
+		return loads.get();
+	} // end getLoadCount()
+
+	/**
+	 * @return Total time spent loading or training coders, in nanoseconds.
+	 */
+	public long getTotalLoadTimeNanos() {
+		return totalLoadNanos.get();
+	} // end getTotalLoadTimeNanos()
+
+	@Override
+	public String toString() {
+		long numLoads = getLoadCount();
+		return "CoderCache[size=" + size() + "/" + maxSize + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", average load=" + (numLoads == 0 ? 0 : getTotalLoadTimeNanos() / numLoads / 1000000) + " ms]";
+	} // end toString()
+
+	/**
+	 * Cache key: the channel conditions and the coder rate.
+	 */
+	private static final class Key {
+		private final double bitErrorRate, burstLevel;
+		private final int markovOrder, coderRate;
+
+		private Key(double bitErrorRate, double burstLevel, int markovOrder, int coderRate) {
+			this.bitErrorRate = bitErrorRate;
+			this.burstLevel = burstLevel;
+			this.markovOrder = markovOrder;
+			this.coderRate = coderRate;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return Double.compare(bitErrorRate, other.bitErrorRate) == 0 && Double.compare(burstLevel, other.burstLevel) == 0
+					&& markovOrder == other.markovOrder && coderRate == other.coderRate;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(bitErrorRate, burstLevel, markovOrder, coderRate);
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoderCacheTest {
+
+	private static final int NUM_THREADS = 8;
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+
+		// concurrent misses on one key must share a single load
+		StubLoader loader = new StubLoader();
+		CoderCache cache = new CoderCache(2, loader::load);
+		List<Future<Coder>> requests = new ArrayList<>();
+		for (int t = 0; t < NUM_THREADS; t++)
+			requests.add(executor.submit(() -> cache.getCoder(channel(0), 1)));
+		loader.awaitStarted(1);
+		Thread.sleep(100); // let the other requests find the loading coder
+		loader.release();
+		Coder first = requests.get(0).get();
+		boolean sameCoder = true;
+		for (Future<Coder> request : requests)
+			sameCoder &= request.get() == first;
+		System.out.println("Single flight: " + loader.getLoadCount(0) + " load (expected 1), same coder " + sameCoder
+				+ ", hits " + cache.getHitCount() + " (expected " + (NUM_THREADS - 1) + "), misses " + cache.getMissCount()
+				+ " (expected 1), loads " + cache.getLoadCount() + " (expected 1)");
+
+		// more keys loading than the cache holds: none of them may be evicted before it finishes
+		StubLoader slowLoader = new StubLoader();
+		CoderCache smallCache = new CoderCache(2, slowLoader::load);
+		List<Future<Coder>> loads = new ArrayList<>();
+		for (int key = 0; key < 3; key++) {
+			int k = key;
+			loads.add(executor.submit(() -> smallCache.getCoder(channel(k), 1)));
+		}
+		slowLoader.awaitStarted(3);
+		int sizeWhileLoading = smallCache.size();
+		Future<Coder> again = executor.submit(() -> smallCache.getCoder(channel(0), 1));
+		Thread.sleep(100);
+		slowLoader.release();
+		again.get();
+		for (Future<Coder> load : loads)
+			load.get();
+		System.out.println("Loading coders kept: size " + sizeWhileLoading + " while loading (expected 3), "
+				+ smallCache.size() + " after (expected 2), key 0 loaded " + slowLoader.getLoadCount(0) + " time (expected 1)");
+
+		// least recently used order
+		StubLoader lruLoader = new StubLoader();
+		lruLoader.release();
+		CoderCache lruCache = new CoderCache(2, lruLoader::load);
+		lruCache.getCoder(channel(0), 1);
+		lruCache.getCoder(channel(1), 1);
+		lruCache.getCoder(channel(0), 1); // key 1 is now the least recently used
+		lruCache.getCoder(channel(2), 1); // evicts key 1
+		lruCache.getCoder(channel(0), 1);
+		lruCache.getCoder(channel(1), 1);
+		System.out.println("LRU: loads of keys 0, 1, 2 = " + lruLoader.getLoadCount(0) + ", " + lruLoader.getLoadCount(1) + ", "
+				+ lruLoader.getLoadCount(2) + " (expected 1, 2, 1), hits " + lruCache.getHitCount() + " (expected 2), misses "
+				+ lruCache.getMissCount() + " (expected 4)");
+
+		// a failed load is forgotten, so the next request retries it
+		AtomicInteger attempts = new AtomicInteger();
+		CoderCache failingCache = new CoderCache(2, (channel, coderRate) -> {
+			if (attempts.incrementAndGet() == 1)
+				throw new IllegalStateException("training failed");
+			return new Coder(new HashMap<>(), coderRate);
+		});
+		boolean threw = false;
+		try {
+			failingCache.getCoder(channel(0), 1);
+		} catch (IllegalStateException e) {
+			threw = true;
+		}
+		failingCache.getCoder(channel(0), 1);
+		System.out.println("Failed load: thrown " + threw + ", retried " + (attempts.get() == 2) + ", loads " + failingCache.getLoadCount() + " (expected 2)");
+
+		// a loader that finds no coder fails the load too, rather than caching null
+		AtomicInteger nullAttempts = new AtomicInteger();
+		CoderCache nullCache = new CoderCache(2, (channel, coderRate) -> nullAttempts.incrementAndGet() == 1 ? null : new Coder(new HashMap<>(), coderRate));
+		threw = false;
+		try {
+			nullCache.getCoder(channel(0), 1);
+		} catch (IllegalStateException e) {
+			threw = true;
+		}
+		System.out.println("Null coder: thrown " + threw + ", retried with a coder " + (nullCache.getCoder(channel(0), 1) != null)
+				+ ", loads " + nullCache.getLoadCount() + " (expected 2)");
+
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return A channel that identifies a cache key.
+	 */
+	private static Channel channel(int key) {
+		return new Channel(0.001 * (key + 1), 0);
+	}
+
+	/**
+	 * Counts loads per bit error rate, and holds every load until released.
+	 */
+	private static class StubLoader {
+		private final Map<Double, AtomicInteger> loadCounts = new ConcurrentHashMap<>();
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final AtomicInteger started = new AtomicInteger();
+
+		private Coder load(Channel channel, int coderRate) {
+			loadCounts.computeIfAbsent(channel.getBitErrorRate(), k -> new AtomicInteger()).incrementAndGet();
+			synchronized (started) {
+				started.incrementAndGet();
+				started.notifyAll();
+			}
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new Coder(new HashMap<>(), coderRate);
+		}
+
+		private void awaitStarted(int numLoads) throws InterruptedException {
+			synchronized (started) {
+				while (started.get() < numLoads)
+					started.wait();
+			}
+		}
+
+		private void release() {
+			released.countDown();
+		}
+
+		private int getLoadCount(int key) {
+			AtomicInteger count = loadCounts.get(channel(key).getBitErrorRate());
+			return count == null ? 0 : count.get();
+		}
+	}
+
+}
@@ -1,14 +1,20 @@
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class CoderFactory {
 
@@ -25,136 +31,344 @@ public class CoderFactory {
 	
 
 	/**
-	 * Checks if a Coder is cached and returns it if so
+	 * Checks if a Coder is cached and returns it if so. The binary coder file is preferred, falling
+	 * back to a serialized coder from older versions.
 	 * @param trainingChannel The channel with which the coder was trained.
 	 * @param coderRate The overall rate of the coder.
 	 * @return A Coder object.
 	 */
 	public static Coder loadCoder(Channel channel, int coderRate) {
-		String potentialFilename = "coder-" + channel.getBitErrorRate() + "-" + channel.getBurstLevel() + ".ser";
-		try (
-			FileInputStream fileIn = new FileInputStream(potentialFilename);
-			ObjectInputStream in = new ObjectInputStream(fileIn)
-		) {
-			Coder deserializedCoder = (Coder) in.readObject();
-			deserializedCoder.setCoderRate(coderRate);
-			System.out.println("Loaded coder successfully!");
-			return deserializedCoder;
+		String baseFilename = getBaseFilename(channel);
+		Coder loadedCoder;
+		try {
+			if (new File(baseFilename + CoderFile.EXTENSION).exists())
+				loadedCoder = CoderFile.read(baseFilename + CoderFile.EXTENSION);
+			else
+				loadedCoder = deserializeCoder(baseFilename + ".ser");
 		} catch (IOException i) {
-			System.out.println("Coder class not found");
+			System.out.println("Coder could not be loaded: " + i.getMessage());
 			return null;
 		} catch (ClassNotFoundException c) {
 			System.out.println("Coder class not found");
 			c.printStackTrace();
 			return null;
-		}		
+		}
+		loadedCoder.setCoderRate(coderRate);
+		System.out.println("Loaded coder successfully!");
+		return loadedCoder;
 	} // end loadCoder()
 	
 	/**
-	 * Creates a new coder.
+	 * Creates a new coder, training its quantizers in parallel.
 	 * @param channel Training channel.
 	 * @param coderRate Rate of the coder.
 	 * @return New coder.
 	 */
 	public static Coder makeCoder(Channel channel, int coderRate) {
-		String potentialFilename = "coder-" + channel.getBitErrorRate() + "-" + channel.getBurstLevel() + ".ser";
-		System.out.println("Making new coder(s)!");
-		Coder newCoder = new Coder(generateCOSQs(channel, coderRate), coderRate);
-		serializeNewCoder(newCoder, potentialFilename);
+		return makeCoder(channel, coderRate, TrainingProgressListener.CONSOLE);
+	} // end makeCoder()
+	
+	/**
+	 * Creates a new coder, training its quantizers in parallel on a pool sized to the machine.
+	 * @param channel Training channel.
+	 * @param coderRate Rate of the coder.
+	 * @param listener Receives progress for each quantizer.
+	 * @return New coder.
+	 */
+	public static Coder makeCoder(Channel channel, int coderRate, TrainingProgressListener listener) {
+		return makeCoder(channel, coderRate, listener, new AnnealingOptions());
+	} // end makeCoder()
+	
+	/**
+	 * Creates a new coder, training its quantizers in parallel on a pool sized to the machine.
+	 * @param channel Training channel.
+	 * @param coderRate Rate of the coder.
+	 * @param listener Receives progress for each quantizer.
+	 * @param options How the index map of each quantizer is annealed.
+	 * @return New coder.
+	 */
+	public static Coder makeCoder(Channel channel, int coderRate, TrainingProgressListener listener, AnnealingOptions options) {
+		ExecutorService executor = newTrainingPool();
+		try {
+			return makeCoder(channel, coderRate, executor, listener, options);
+		} finally {
+			executor.shutdown();
+		}
+	} // end makeCoder()
+	
+	/**
+	 * Creates a new coder, training its quantizers as separate tasks on the given executor.
+	 * @param channel Training channel.
+	 * @param coderRate Rate of the coder.
+	 * @param executor Runs the training tasks, or null to train them one after another on this thread.
+	 * @param listener Receives progress for each quantizer.
+	 * @return New coder.
+	 */
+	public static Coder makeCoder(Channel channel, int coderRate, ExecutorService executor, TrainingProgressListener listener) {
+		return makeCoder(channel, coderRate, executor, listener, new AnnealingOptions());
+	} // end makeCoder()
+	
+	/**
+	 * Creates a new coder, training its quantizers as separate tasks on the given executor. The annealing
+	 * chains of each quantizer run on a pool of their own, since the quantizer tasks wait for them.
+	 * @param channel Training channel.
+	 * @param coderRate Rate of the coder.
+	 * @param executor Runs the training tasks, or null to train them one after another on this thread.
+	 * @param listener Receives progress for each quantizer.
+	 * @param options How the index map of each quantizer is annealed.
+	 * @return New coder.
+	 */
+	public static Coder makeCoder(Channel channel, int coderRate, ExecutorService executor, TrainingProgressListener listener,
+			AnnealingOptions options) {
+		String filename = getBaseFilename(channel) + CoderFile.EXTENSION;
+		ExecutorService chainExecutor = newChainPool(options);
+		Coder newCoder;
+		try {
+			newCoder = new Coder(generateCOSQs(channel, coderRate, executor, listener, options, chainExecutor), coderRate);
+		} finally {
+			if (chainExecutor != null)
+				chainExecutor.shutdown();
+		}
+		writeNewCoder(newCoder, channel, filename);
 		return newCoder;
 	} // end makeCoder()
 	
 	/**
-	 * Trains and serializes multiple coders of rate 1.
+	 * Trains and saves multiple coders of rate 1, training the quantizers in parallel.
 	 * @param bitErrorRates Array of the bit error rates associated with each coder.
-	 * @param coderRate The overall rate of the coder.
+	 * @param burstLevel The burst level of every training channel.
 	 */
 	public static void createMultipleCoders(double[] bitErrorRates, double burstLevel) {
-		Arrays.sort(bitErrorRates);
+		createMultipleCoders(bitErrorRates, burstLevel, TrainingProgressListener.CONSOLE);
+	} // end createMultipleCoders()
+	
+	/**
+	 * Trains and saves multiple coders of rate 1. Each quantizer is one task, which trains its initial
+	 * codebook and then updates it for every bit error rate in increasing order, so the quantizers
+	 * run in parallel while the updates for one quantizer stay in sequence.
+	 * @param bitErrorRates Array of the bit error rates associated with each coder.
+	 * @param burstLevel The burst level of every training channel.
+	 * @param listener Receives progress for each quantizer.
+	 */
+	public static void createMultipleCoders(double[] bitErrorRates, double burstLevel, TrainingProgressListener listener) {
+		createMultipleCoders(bitErrorRates, burstLevel, listener, new AnnealingOptions());
+	} // end createMultipleCoders()
+	
+	/**
+	 * Trains and saves multiple coders of rate 1, as above, annealing each initial codebook as the options say.
+	 * @param bitErrorRates Array of the bit error rates associated with each coder.
+	 * @param burstLevel The burst level of every training channel.
+	 * @param listener Receives progress for each quantizer.
+	 * @param options How the index map of each quantizer is annealed.
+	 */
+	public static void createMultipleCoders(double[] bitErrorRates, double burstLevel, TrainingProgressListener listener,
+			AnnealingOptions options) {
+		double[] sortedBitErrorRates = bitErrorRates.clone();
+		Arrays.sort(sortedBitErrorRates);
 		List<Double> dcTrainingData = generateDCTrainingData(NUM_TRAINING_VECTORS);
 		List<Double> acTrainingData = generateACTrainingData(NUM_TRAINING_VECTORS);
-		Map<Integer, List<Double>> codebooks = new HashMap<>();
-		Map<Integer, COSQ> cosqs = new HashMap<>();
-		CodeMapTrainer codeMapTrainer = new CodeMapTrainer();
-		Channel trainingChannel = new Channel(bitErrorRates[0], burstLevel);
-		
-		// Initialize the DC pixel codebook
-		List<Double> dcCodebook = codeMapTrainer.generateInitialCodebook(dcTrainingData, (int) Math.pow(2, UNIQUE_DC_PIXEL_QUANTIZER_RATE));
-		IndexMapTrainer dcIndexMapTrainer = new IndexMapTrainer(dcCodebook, trainingChannel);
-		dcCodebook = dcIndexMapTrainer.train();
+		Channel[] trainingChannels = new Channel[sortedBitErrorRates.length];
+		for (int i = 0; i < sortedBitErrorRates.length; i++)
+			trainingChannels[i] = new Channel(sortedBitErrorRates[i], burstLevel);
 		
-		// Initialize the AC pixel codebooks
+		ExecutorService chainExecutor = newChainPool(options);
+		Map<Integer, Callable<List<COSQ>>> tasks = new LinkedHashMap<>();
+		Map<Integer, Integer> numBits = new HashMap<>(); // codeword length trained by each task
+		// the DC codebook is carried from one bit error rate to the next
+		tasks.put(-1, () -> {
+			List<COSQ> cosqs = new ArrayList<>(trainingChannels.length);
+			CodeMapTrainer codeMapTrainer = new CodeMapTrainer();
+			List<Double> dcCodebook = trainInitialCodebook(dcTrainingData, UNIQUE_DC_PIXEL_QUANTIZER_RATE, trainingChannels[0], options,
+					chainExecutor);
+			for (Channel trainingChannel : trainingChannels) {
+				dcCodebook = codeMapTrainer.generateUpdatedCodebook(dcTrainingData, dcCodebook, trainingChannel);
+				cosqs.add(new COSQ(dcCodebook, trainingChannel));
+			}
+			return cosqs;
+		});
+		numBits.put(-1, UNIQUE_DC_PIXEL_QUANTIZER_RATE);
+		// each AC codebook is updated from its initial codebook for every bit error rate
 		for (int rate : UNIQUE_AC_PIXEL_QUANTIZER_RATES) {
-			List<Double> acCodebook = codeMapTrainer.generateInitialCodebook(acTrainingData, (int) Math.pow(2, rate));
-			IndexMapTrainer acIndexMapTrainer = new IndexMapTrainer(acCodebook, trainingChannel);
-			acCodebook = acIndexMapTrainer.train();
-			codebooks.put(rate, acCodebook);
+			tasks.put(rate, () -> {
+				List<COSQ> cosqs = new ArrayList<>(trainingChannels.length);
+				CodeMapTrainer codeMapTrainer = new CodeMapTrainer();
+				List<Double> acCodebook = trainInitialCodebook(acTrainingData, rate, trainingChannels[0], options, chainExecutor);
+				for (Channel trainingChannel : trainingChannels)
+					cosqs.add(new COSQ(codeMapTrainer.generateUpdatedCodebook(acTrainingData, acCodebook, trainingChannel), trainingChannel));
+				return cosqs;
+			});
+			numBits.put(rate, rate);
 		}
 		
-		for (double bitErrorRate: bitErrorRates) {
-			System.out.println("Currently making the Coder for BER = " + bitErrorRate);
-			// update training Channel
-			trainingChannel = new Channel(bitErrorRate, burstLevel);
-			
-			// update DC codebook & generate the DC pixel COSQ 
-			dcCodebook = codeMapTrainer.generateUpdatedCodebook(dcTrainingData, dcCodebook, trainingChannel);
-			cosqs.put(-1, new COSQ(dcCodebook));
-
-			// update AC codebook & generate the AC pixel COSQs
-			for (int rate : UNIQUE_AC_PIXEL_QUANTIZER_RATES) {
-				List<Double> acCodebook = codeMapTrainer.generateUpdatedCodebook(acTrainingData, codebooks.get(rate), trainingChannel);
-				cosqs.put(rate, new COSQ(acCodebook));
-			}
-			
-			String filename = "coder-" + bitErrorRate + "-" + burstLevel + ".ser";
-			serializeNewCoder(new Coder(cosqs, 1), filename);
+		ExecutorService executor = newTrainingPool();
+		Map<Integer, List<COSQ>> trainedCOSQs;
+		try {
+			trainedCOSQs = runTrainingTasks(tasks, numBits, executor, listener);
+		} finally {
+			executor.shutdown();
+			if (chainExecutor != null)
+				chainExecutor.shutdown();
+		}
+		
+		for (int i = 0; i < trainingChannels.length; i++) {
+			Map<Integer, COSQ> cosqs = new HashMap<>();
+			for (Map.Entry<Integer, List<COSQ>> entry : trainedCOSQs.entrySet())
+				cosqs.put(entry.getKey(), entry.getValue().get(i));
+			String filename = getBaseFilename(trainingChannels[i]) + CoderFile.EXTENSION;
+			writeNewCoder(new Coder(cosqs, 1), trainingChannels[i], filename);
 		}
-		System.out.println("Done!");
 	} // end createMultipleCoders()
 	
 	
-	private static void serializeNewCoder(Coder coder, String filename) {
-		try (
-			FileOutputStream fileOut = new FileOutputStream(filename);
-			ObjectOutputStream out = new ObjectOutputStream(fileOut)
-		) {
-			out.writeObject(coder);
+	private static void writeNewCoder(Coder coder, Channel trainingChannel, String filename) {
+		try {
+			CoderFile.write(coder, trainingChannel, filename);
 		} catch (IOException i) {
 			i.printStackTrace();
 		}
-	} // end serializeNewCoder()
+	} // end writeNewCoder()
+	
+	/**
+	 * Reads a coder saved with Java serialization by older versions.
+	 * @param filename Name of the serialized coder file.
+	 * @return The deserialized Coder.
+	 */
+	static Coder deserializeCoder(String filename) throws IOException, ClassNotFoundException {
+		try (
+			FileInputStream fileIn = new FileInputStream(filename);
+			ObjectInputStream in = new ObjectInputStream(fileIn)
+		) {
+			return (Coder) in.readObject();
+		}
+	} // end deserializeCoder()
 	
 	/**
-	 * Creates a Map of COSQs, used to instantiate a Coder object.
+	 * @return The name, without extension, of the file holding the coder for a channel. First order
+	 * channels keep the original name, other orders add the order.
+	 */
+	private static String getBaseFilename(Channel channel) {
+		String baseFilename = "coder-" + channel.getBitErrorRate() + "-" + channel.getBurstLevel();
+		return channel.getMarkovOrder() == 1 ? baseFilename : baseFilename + "-order" + channel.getMarkovOrder();
+	} // end getBaseFilename()
+	
+	/**
+	 * Creates a Map of COSQs, used to instantiate a Coder object. Each quantizer is trained by its own task.
 	 * @param trainingChannel The channel with which the COSQs will be trained.
 	 * @param coderRate The overall rate of the coder.
+	 * @param executor Runs the training tasks, or null to train them one after another on this thread.
+	 * @param listener Receives progress for each quantizer.
+	 * @param options How the index map of each quantizer is annealed.
+	 * @param chainExecutor Runs the annealing chains, or null to run them on the training task's thread.
 	 * @return A Map from COSQ rates to COSQ objects. 
 	 */
-	private static Map<Integer, COSQ> generateCOSQs(Channel trainingChannel, int coderRate) {
-		Map<Integer, COSQ> cosqs = new HashMap<>();
+	private static Map<Integer, COSQ> generateCOSQs(Channel trainingChannel, int coderRate, ExecutorService executor,
+			TrainingProgressListener listener, AnnealingOptions options, ExecutorService chainExecutor) {
 		List<Double> dcTrainingData = generateDCTrainingData(NUM_TRAINING_VECTORS);
 		List<Double> acTrainingData = generateACTrainingData(NUM_TRAINING_VECTORS);
-		CodeMapTrainer codeMapTrainer = new CodeMapTrainer();
-		
-		// generate the DC pixel COSQ
-		List<Double> dcCodebook = codeMapTrainer.generateInitialCodebook(dcTrainingData, (int) Math.pow(2, UNIQUE_DC_PIXEL_QUANTIZER_RATE * coderRate));
-		IndexMapTrainer dcIndexMapTrainer = new IndexMapTrainer(dcCodebook, trainingChannel);
-		dcCodebook = dcIndexMapTrainer.train();
+		Map<Integer, Callable<COSQ>> tasks = new LinkedHashMap<>();
+		Map<Integer, Integer> numBits = new HashMap<>(); // codeword length trained by each task
 		
 		// give the DC pixel COSQ a key of -1 to ensure it is unique
-		cosqs.put(-1, new COSQ(dcCodebook));
-
-		// generate the AC pixel COSQs
+		int dcNumBits = UNIQUE_DC_PIXEL_QUANTIZER_RATE * coderRate;
+		tasks.put(-1, () -> new COSQ(trainInitialCodebook(dcTrainingData, dcNumBits, trainingChannel, options, chainExecutor), trainingChannel));
+		numBits.put(-1, dcNumBits);
 		for (int rate : UNIQUE_AC_PIXEL_QUANTIZER_RATES) {
-			List<Double> acCodebook = codeMapTrainer.generateInitialCodebook(acTrainingData, (int) Math.pow(2, rate * coderRate));
-			IndexMapTrainer acIndexMapTrainer = new IndexMapTrainer(acCodebook, trainingChannel);
-			acCodebook = acIndexMapTrainer.train();
-			cosqs.put(rate * coderRate, new COSQ(acCodebook));
+			int acNumBits = rate * coderRate;
+			tasks.put(acNumBits, () -> new COSQ(trainInitialCodebook(acTrainingData, acNumBits, trainingChannel, options, chainExecutor),
+					trainingChannel));
+			numBits.put(acNumBits, acNumBits);
 		}
 		
-		return cosqs;
+		return runTrainingTasks(tasks, numBits, executor, listener);
 	} // end generateCOSQs()
 	
+	/**
+	 * Trains a codebook with the LBG algorithm and then orders its indices with simulated annealing, as the options say.
+	 * Creates its own trainers, so it can run concurrently with other calls.
+	 * @param trainingData The training data, which is only read.
+	 * @param numBits Number of bits in each codeword.
+	 * @param trainingChannel The channel the index map is trained for.
+	 * @param options How the index map is annealed.
+	 * @param chainExecutor Runs the annealing chains, or null to run them on this thread.
+	 * @return The codebook in index order.
+	 */
+	private static List<Double> trainInitialCodebook(List<Double> trainingData, int numBits, Channel trainingChannel,
+			AnnealingOptions options, ExecutorService chainExecutor) {
+		List<Double> codebook = new CodeMapTrainer().generateInitialCodebook(trainingData, 1 << numBits);
+		IndexMapTrainer indexMapTrainer = new IndexMapTrainer(codebook, trainingChannel);
+		indexMapTrainer.setSchedule(options.getSchedule());
+		indexMapTrainer.setStagnationLimit(options.getStagnationLimit());
+		indexMapTrainer.setObserver(options.getObserver());
+		return indexMapTrainer.train(options.getNumChains(), options.getSeed(), chainExecutor);
+	} // end trainInitialCodebook()
+	
+	/**
+	 * Runs one training task per quantizer and waits for all of them.
+	 * @param tasks Training tasks by quantizer key.
+	 * @param numBits Number of bits in each codeword trained by each task, by quantizer key.
+	 * @param executor Runs the tasks, or null to run them one after another on this thread.
+	 * @param listener Told when each task starts and finishes.
+	 * @return The result of each task, by quantizer key.
+	 */
+	private static <T> Map<Integer, T> runTrainingTasks(Map<Integer, Callable<T>> tasks, Map<Integer, Integer> numBits,
+			ExecutorService executor, TrainingProgressListener listener) {
+		Map<Integer, Future<T>> futures = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Callable<T>> entry : tasks.entrySet()) {
+			int key = entry.getKey();
+			int taskNumBits = numBits.get(key);
+			Callable<T> task = entry.getValue();
+			Callable<T> reportingTask = () -> {
+				listener.quantizerStarted(key, taskNumBits);
+				long timeInit = System.nanoTime();
+				T result = task.call();
+				listener.quantizerFinished(key, taskNumBits, (System.nanoTime() - timeInit) / 1000000);
+				return result;
+			};
+			if (executor == null) {
+				FutureTask<T> future = new FutureTask<>(reportingTask);
+				future.run();
+				futures.put(key, future);
+			}
+			else
+				futures.put(key, executor.submit(reportingTask));
+		}
+		
+		Map<Integer, T> results = new HashMap<>();
+		try {
+			for (Map.Entry<Integer, Future<T>> entry : futures.entrySet())
+				results.put(entry.getKey(), entry.getValue().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training quantizers", e);
+		} catch (ExecutionException e) {
+			for (Future<T> future : futures.values())
+				future.cancel(true);
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		return results;
+	} // end runTrainingTasks()
+	
+	/**
+	 * @return A fixed pool with one thread per processor, but no more threads than there are quantizers.
+	 */
+	private static ExecutorService newTrainingPool() {
+		int numQuantizers = UNIQUE_AC_PIXEL_QUANTIZER_RATES.length + 1;
+		return Executors.newFixedThreadPool(Math.min(numQuantizers, Runtime.getRuntime().availableProcessors()));
+	} // end newTrainingPool()
+	
+	/**
+	 * The quantizer tasks wait for their chains, so the chains cannot share the training pool without
+	 * risking every training thread waiting on chains that have no thread left to run on.
+	 * @return A fixed pool with one thread per processor for the annealing chains, or null for a single chain.
+	 */
+	private static ExecutorService newChainPool(AnnealingOptions options) {
+		if (options.getNumChains() == 1)
+			return null;
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	} // end newChainPool()
+	
 	/**
 	 * Generates training data for the DC pixels, using a normal distribution. See p.46 of thesis.
 	 * @param numToGenerate The number of training vectors to generate.
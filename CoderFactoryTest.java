@@ -0,0 +1,77 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoderFactoryTest {
+
+	private static final int NUM_CHAINS = 4;
+	private static final int STAGNATION_LIMIT = 2;
+	private static final long WINDOW_MILLIS = 1000;
+	private static final Channel CHANNEL = new Channel(0.0123, 0.7); // unlikely to match a coder file someone keeps
+	private static final File CODER_FILE = new File("coder-" + CHANNEL.getBitErrorRate() + "-" + CHANNEL.getBurstLevel() + CoderFile.EXTENSION);
+
+	public static void main(String[] args) {
+		try {
+			// one chain is the thesis training, and more chains can only find a better index map, since chain 0 is that same chain
+			Coder thesisCoder = CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE);
+			AnnealingOptions options = new AnnealingOptions();
+			Coder singleChainCoder = CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			options.setNumChains(NUM_CHAINS);
+			Coder multiChainCoder = CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			Coder repeatedCoder = CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			boolean sameAsThesis = true, repeatable = true, noWorse = true;
+			double singleChainDistortion = 0, multiChainDistortion = 0;
+			for (int index = 0; index < Coder.getBlockSize() * Coder.getBlockSize(); index++) {
+				if (thesisCoder.getBlockQuantizer(index) == null)
+					continue;
+				double[] thesisCodeWords = thesisCoder.getBlockQuantizer(index).getCodeWords();
+				double[] multiChainCodeWords = multiChainCoder.getBlockQuantizer(index).getCodeWords();
+				sameAsThesis &= Arrays.equals(thesisCodeWords, singleChainCoder.getBlockQuantizer(index).getCodeWords());
+				repeatable &= Arrays.equals(multiChainCodeWords, repeatedCoder.getBlockQuantizer(index).getCodeWords());
+				double single = expectedDistortion(thesisCodeWords), multi = expectedDistortion(multiChainCodeWords);
+				noWorse &= multi <= single;
+				singleChainDistortion += single;
+				multiChainDistortion += multi;
+			}
+			System.out.println("Default options: " + (sameAsThesis ? "same coder as before" : "DIFFERENT CODER") + "; " + NUM_CHAINS
+					+ " chains: " + (repeatable ? "repeatable" : "NOT REPEATABLE") + ", index map distortion " + multiChainDistortion
+					+ " against " + singleChainDistortion + " for one chain" + (noWorse ? " (ok)" : " (WORSE)"));
+
+			// the schedule, stagnation limit and observer reach every quantizer
+			AtomicInteger numStages = new AtomicInteger();
+			options = new AnnealingOptions();
+			options.setObserver((chain, stage, temp, energy, bestEnergy, acceptanceRate) -> numStages.incrementAndGet());
+			CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			int thesisStages = numStages.getAndSet(0);
+			options.setStagnationLimit(STAGNATION_LIMIT);
+			CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			int stagnationStages = numStages.getAndSet(0);
+			options.setStagnationLimit(0);
+			long timeInit = System.nanoTime();
+			options.setSchedule(TimeBudgetedSchedule.forWindow(10, 1e-12, WINDOW_MILLIS, 200)); // cools only as the window runs out
+			CoderFactory.makeCoder(CHANNEL, 1, TrainingProgressListener.NONE, options);
+			long windowedMillis = (System.nanoTime() - timeInit) / 1000000;
+			System.out.println("Observer: " + thesisStages + " stages with the thesis schedule, " + stagnationStages + " with a stagnation limit of "
+					+ STAGNATION_LIMIT + (stagnationStages > 0 && stagnationStages < thesisStages ? " (ok)" : " (NOT APPLIED)") + "; within a "
+					+ WINDOW_MILLIS + " ms window, training took " + windowedMillis + " ms" + (windowedMillis < 2 * WINDOW_MILLIS ? " (ok)" : " (OVER THE WINDOW)"));
+		} finally {
+			CODER_FILE.delete();
+		}
+	}
+
+	/**
+	 * @return Expected distortion over CHANNEL of the codewords in their index order.
+	 */
+	private static double expectedDistortion(double[] codeWords) {
+		List<Double> codebook = new ArrayList<>(codeWords.length);
+		int[] identity = new int[codeWords.length];
+		for (int i = 0; i < codeWords.length; i++) {
+			codebook.add(codeWords[i]);
+			identity[i] = i;
+		}
+		return new IndexMapTrainer(codebook, CHANNEL).expectedDistortion(identity);
+	}
+
+}
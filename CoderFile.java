@@ -0,0 +1,198 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes coders in a compact, versioned binary format. All values are big-endian:
+ *
+ * <pre>
+ * int    magic ("COSQ")
+ * int    format version
+ * int    block size N, followed by N * N ints of bit allocation in row-major order
+ * int    coder rate
+ * double bit error rate, double burst level, int markov order of the training channel
+ *        (NaN, NaN, 0 when unknown)
+ * int    number of quantizers, then for each quantizer:
+ *        int key (rate, or -1 for the DC quantizer), int number of codewords,
+ *        and that many doubles, the codewords in index order
+ *        (version 2 and later) int number of encoding regions R, 0 when the quantizer encodes to
+ *        the nearest codeword, otherwise R ints, the index sent in each region, and R - 1 doubles,
+ *        the region boundaries in ascending order
+ * </pre>
+ *
+ * Version 1 files, which have no encoding regions, can still be read.
+ *
+ * Files are read through a memory map, so loading a coder costs little more than copying its codebooks.
+ */
+public class CoderFile {
+
+	public static final String EXTENSION = ".coder";
+
+	private static final int MAGIC = 0x434F5351; // "COSQ"
+	private static final int VERSION = 2;
+	private static final int FIRST_VERSION_WITH_PARTITION = 2;
+
+
+	/**
+	 * Writes a coder to a file.
+	 * @param coder The coder to write.
+	 * @param trainingChannel The channel the coder was trained for, or null if unknown.
+	 * @param filename Name of the file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write(Coder coder, Channel trainingChannel, String filename) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			int[][] bitAllocation = Coder.getBitAllocation();
+			out.writeInt(bitAllocation.length);
+			for (int[] row : bitAllocation) {
+				for (int bits : row)
+					out.writeInt(bits);
+			}
+			out.writeInt(coder.getCoderRate());
+
+			out.writeDouble(trainingChannel == null ? Double.NaN : trainingChannel.getBitErrorRate());
+			out.writeDouble(trainingChannel == null ? Double.NaN : trainingChannel.getBurstLevel());
+			out.writeInt(trainingChannel == null ? 0 : trainingChannel.getMarkovOrder());
+
+			Map<Integer, COSQ> cosqs = coder.getCOSQs();
+			out.writeInt(cosqs.size());
+			for (Map.Entry<Integer, COSQ> entry : cosqs.entrySet()) {
+				double[] codeWords = entry.getValue().getCodeWords();
+				out.writeInt(entry.getKey());
+				out.writeInt(codeWords.length);
+				for (double codeWord : codeWords)
+					out.writeDouble(codeWord);
+
+				ChannelOptimizedPartition partition = entry.getValue().getPartition();
+				if (partition == null) {
+					out.writeInt(0);
+					continue;
+				}
+				int[] indices = partition.getIndices();
+				out.writeInt(indices.length);
+				for (int index : indices)
+					out.writeInt(index);
+				for (double threshold : partition.getThresholds())
+					out.writeDouble(threshold);
+			}
+		}
+	} // end write()
+
+	/**
+	 * Reads a coder from a file.
+	 * @param filename Name of the file to read.
+	 * @return The coder.
+	 * @throws IOException If the file cannot be read or is not a coder file this version understands.
+	 */
+	public static Coder read(String filename) throws IOException {
+		ByteBuffer in = map(filename);
+		try {
+			int version = readHeader(in, filename);
+			int coderRate = in.getInt();
+			in.position(in.position() + 2 * Double.BYTES + Integer.BYTES); // training channel
+
+			int numQuantizers = in.getInt();
+			Map<Integer, COSQ> cosqs = new HashMap<>();
+			for (int i = 0; i < numQuantizers; i++) {
+				int key = in.getInt();
+				int numCodeWords = in.getInt();
+				if (numCodeWords <= 0 || Integer.bitCount(numCodeWords) != 1 || numCodeWords > in.remaining() / Double.BYTES)
+					throw new IOException(filename + " has an invalid codebook size " + numCodeWords);
+				double[] codeWords = new double[numCodeWords];
+				in.asDoubleBuffer().get(codeWords);
+				in.position(in.position() + codeWords.length * Double.BYTES);
+				cosqs.put(key, new COSQ(codeWords, version >= FIRST_VERSION_WITH_PARTITION ? readPartition(in, numCodeWords, filename) : null));
+			}
+			return new Coder(cosqs, coderRate);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException(filename + " is truncated or corrupt", e);
+		}
+	} // end read()
+
+	/**
+	 * Reads the parameters of the channel a coder file was trained for.
+	 * @param filename Name of the file to read.
+	 * @return The training channel, or null if the file does not record it.
+	 * @throws IOException If the file cannot be read or is not a coder file this version understands.
+	 */
+	public static Channel readTrainingChannel(String filename) throws IOException {
+		ByteBuffer in = map(filename);
+		try {
+			readHeader(in, filename);
+			in.getInt(); // coder rate
+			double bitErrorRate = in.getDouble();
+			double burstLevel = in.getDouble();
+			int markovOrder = in.getInt();
+			if (Double.isNaN(bitErrorRate) || markovOrder == 0)
+				return null;
+			return new Channel(bitErrorRate, burstLevel, markovOrder);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException(filename + " is truncated or corrupt", e);
+		}
+	} // end readTrainingChannel()
+
+	/**
+	 * Reads the encoding regions of one quantizer.
+	 * @return The partition, or null if the quantizer encodes to the nearest codeword.
+	 */
+	private static ChannelOptimizedPartition readPartition(ByteBuffer in, int numCodeWords, String filename) throws IOException {
+		int numRegions = in.getInt();
+		if (numRegions == 0)
+			return null;
+		if (numRegions < 0 || numRegions > numCodeWords)
+			throw new IOException(filename + " has an invalid number of encoding regions " + numRegions);
+		int[] indices = new int[numRegions];
+		for (int r = 0; r < numRegions; r++) {
+			indices[r] = in.getInt();
+			if (indices[r] < 0 || indices[r] >= numCodeWords)
+				throw new IOException(filename + " has an invalid encoding region index " + indices[r]);
+		}
+		double[] thresholds = new double[numRegions - 1];
+		for (int r = 0; r < thresholds.length; r++)
+			thresholds[r] = in.getDouble();
+		return new ChannelOptimizedPartition(thresholds, indices);
+	} // end readPartition()
+
+	private static ByteBuffer map(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after the channel is closed
+		}
+	} // end map()
+
+	/**
+	 * Checks the magic number, version and bit allocation, leaving the buffer at the coder rate.
+	 * @return The format version of the file.
+	 */
+	private static int readHeader(ByteBuffer in, String filename) throws IOException {
+		if (in.remaining() < 2 * Integer.BYTES || in.getInt() != MAGIC)
+			throw new IOException(filename + " is not a coder file");
+		int version = in.getInt();
+		if (version < 1 || version > VERSION)
+			throw new IOException(filename + " has unsupported coder file version " + version);
+
+		int blockSize = in.getInt();
+		if (blockSize != Coder.getBitAllocation().length)
+			throw new IOException(filename + " was written for a different block size");
+		int[][] bitAllocation = new int[blockSize][blockSize];
+		for (int row = 0; row < blockSize; row++) {
+			for (int col = 0; col < blockSize; col++)
+				bitAllocation[row][col] = in.getInt();
+		}
+		if (!Arrays.deepEquals(bitAllocation, Coder.getBitAllocation()))
+			throw new IOException(filename + " was written for a different bit allocation");
+		return version;
+	} // end readHeader()
+
+}
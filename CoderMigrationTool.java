@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts serialized coder files (.ser) to the binary coder file format.
+ * Usage: java CoderMigrationTool coder-0.01-5.0.ser [more .ser files]
+ * Each file is written next to the original with the .coder extension. When the filename follows
+ * the coder-&lt;bit error rate&gt;-&lt;burst level&gt;.ser pattern, the training channel is recorded too.
+ */
+public class CoderMigrationTool {
+
+	private static final Pattern CODER_FILENAME = Pattern.compile("coder-([^-]+)-([^-]+)\\.ser$");
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: java CoderMigrationTool <coder .ser file>...");
+			return;
+		}
+		int numFailed = 0;
+		for (String filename : args) {
+			try {
+				migrate(filename);
+			} catch (IOException | ClassNotFoundException e) {
+				System.out.println("Could not migrate " + filename + ": " + e.getMessage());
+				numFailed++;
+			}
+		}
+		if (numFailed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Converts one serialized coder file.
+	 * @param filename Name of the .ser file.
+	 */
+	private static void migrate(String filename) throws IOException, ClassNotFoundException {
+		Coder coder = CoderFactory.deserializeCoder(filename);
+		Channel trainingChannel = null;
+		Matcher matcher = CODER_FILENAME.matcher(filename);
+		if (matcher.find()) {
+			try {
+				trainingChannel = new Channel(Double.parseDouble(matcher.group(1)), Double.parseDouble(matcher.group(2)));
+			} catch (NumberFormatException e) {
+				trainingChannel = null; // not a channel we can name, so leave it unrecorded
+			}
+		}
+		String newFilename = (filename.endsWith(".ser") ? filename.substring(0, filename.length() - 4) : filename) + CoderFile.EXTENSION;
+		CoderFile.write(coder, trainingChannel, newFilename);
+
+		// make sure the new file decodes to the same codebooks
+		Coder migratedCoder = CoderFile.read(newFilename);
+		for (Integer key : coder.getCOSQs().keySet()) {
+			if (!Arrays.equals(coder.getCOSQs().get(key).getCodeWords(), migratedCoder.getCOSQs().get(key).getCodeWords()))
+				throw new IOException("codebook " + key + " differs after migration");
+		}
+		System.out.println(filename + " -> " + newFilename);
+	} // end migrate()
+
+}
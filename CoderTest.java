@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoderTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int IMAGE_SIZE = 2048;
+	private static final int NUM_RUNS = 5;
+	private static final int SMALL_IMAGE_SIZE = 256;
+	private static final int NUM_CONCURRENT_IMAGES = 32;
+	private static final double[] FLAT_LEVELS = {200, 128.3, 77.7};
+	private static final double FLAT_TOLERANCE = 1e-3; // largest pixel error allowed on a flat image
+	private static final long BAND_DELAY_MILLIS = 100;
+
+	public static void main(String[] args) throws Exception {
+		Coder coder = new Coder(TestFixtures.uniformCOSQs(null), 1);
+		double[][] image = TestFixtures.syntheticImage(IMAGE_SIZE, IMAGE_SIZE, RNG_SEED);
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+		// sequential and parallel encoding must produce the same bits
+		EncodedImage sequentialImage = null, parallelImage = null;
+		long sequentialTime = Long.MAX_VALUE, parallelTime = Long.MAX_VALUE;
+		for (int run = 0; run < NUM_RUNS; run++) {
+			long timeInit = System.nanoTime();
+			sequentialImage = coder.encode(image);
+			sequentialTime = Math.min(sequentialTime, System.nanoTime() - timeInit);
+			timeInit = System.nanoTime();
+			parallelImage = coder.encode(image, executor);
+			parallelTime = Math.min(parallelTime, System.nanoTime() - timeInit);
+		}
+		System.out.println("Encoded bits identical: " + sequentialImage.getEncodedData().equals(parallelImage.getEncodedData()));
+		System.out.println("Sequential encode: " + sequentialTime / 1000000 + " ms, parallel encode: " + parallelTime / 1000000
+				+ " ms on " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		// sequential and parallel decoding must produce the same pixels
+		long timeInit = System.nanoTime();
+		double[] sequentialPixels = coder.decodePixels(sequentialImage, null);
+		sequentialTime = System.nanoTime() - timeInit;
+		timeInit = System.nanoTime();
+		double[] parallelPixels = coder.decodePixels(sequentialImage, executor);
+		parallelTime = System.nanoTime() - timeInit;
+		System.out.println("Decoded pixels identical: " + Arrays.equals(sequentialPixels, parallelPixels));
+		System.out.println("Sequential decode: " + sequentialTime / 1000000 + " ms, parallel decode: " + parallelTime / 1000000 + " ms");
+
+		// one Coder shared by many threads must give the same results as using it alone
+		List<Callable<Double>> requests = new ArrayList<>();
+		double[] expectedPSNRs = new double[NUM_CONCURRENT_IMAGES];
+		for (int k = 0; k < NUM_CONCURRENT_IMAGES; k++) {
+			double[][] requestImage = TestFixtures.syntheticImage(SMALL_IMAGE_SIZE, SMALL_IMAGE_SIZE, RNG_SEED + k);
+			double[] sourceVals = ImageManager.toRowMajor(requestImage);
+			expectedPSNRs[k] = Coder.computePSNR(sourceVals, coder.decodePixels(coder.encode(requestImage), null));
+			requests.add(() -> Coder.computePSNR(sourceVals, coder.decodePixels(coder.encode(requestImage), null)));
+		}
+		List<Future<Double>> results = executor.invokeAll(requests);
+		int mismatches = 0;
+		for (int k = 0; k < NUM_CONCURRENT_IMAGES; k++) {
+			if (results.get(k).get() != expectedPSNRs[k])
+				mismatches++;
+		}
+		System.out.println("Concurrent requests differing from sequential: " + mismatches + " of " + NUM_CONCURRENT_IMAGES);
+
+		// a flat image has no variance to measure, which must not turn into a negative variance and NaN pixels
+		for (Coder.TransformType type : Coder.TransformType.values()) {
+			coder.setTransformType(type);
+			for (double level : FLAT_LEVELS) {
+				double[] flatPixels = new double[SMALL_IMAGE_SIZE * SMALL_IMAGE_SIZE];
+				Arrays.fill(flatPixels, level);
+				EncodedImage flatImage = coder.encode(flatPixels, SMALL_IMAGE_SIZE, SMALL_IMAGE_SIZE, null);
+				ImageStatistics statistics = flatImage.getStatistics();
+				double maxError = 0;
+				for (double pixel : coder.decodePixels(flatImage, null))
+					maxError = Double.isNaN(pixel) ? Double.NaN : Math.max(maxError, Math.abs(pixel - level));
+				System.out.println("Flat image at " + level + ", " + type + ": variances " + statistics.getVarCoeffDC() + ", "
+						+ statistics.getVarCoeffAC() + ", largest pixel error " + maxError
+						+ (statistics.getVarCoeffDC() >= 0 && statistics.getVarCoeffAC() >= 0 && maxError < FLAT_TOLERANCE ? " (ok)" : " (WRONG)"));
+			}
+		}
+		coder.setTransformType(Coder.TransformType.JTRANSFORMS);
+
+		// once a band fails, the bands still queued behind it are cancelled instead of run
+		AtomicInteger numBandsRun = new AtomicInteger();
+		ThreadPoolExecutor slowExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+			@Override
+			protected void beforeExecute(Thread thread, Runnable band) {
+				try {
+					Thread.sleep(BAND_DELAY_MILLIS); // gives the caller time to see the first failure
+				} catch (InterruptedException e) {
+					thread.interrupt();
+				}
+			}
+
+			@Override
+			protected void afterExecute(Runnable band, Throwable error) {
+				if (!((Future<?>) band).isCancelled())
+					numBandsRun.incrementAndGet();
+			}
+		};
+		boolean threw = false;
+		try {
+			coder.encode(new double[1], SMALL_IMAGE_SIZE, SMALL_IMAGE_SIZE, slowExecutor); // every band is out of bounds
+		} catch (ArrayIndexOutOfBoundsException e) {
+			threw = true;
+		}
+		slowExecutor.shutdown();
+		slowExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		System.out.println("Failed band: thrown " + threw + ", bands run " + numBandsRun.get() + " (expected 1)");
+
+		executor.shutdown();
+	}
+
+}
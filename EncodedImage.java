@@ -0,0 +1,89 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The result of encoding one image: the bit stream plus everything the decoder needs to rebuild it.
+ */
+public class EncodedImage {
+
+	private final BitBuffer encodedData;
+	private final ImageStatistics statistics;
+	private final int imageHeight, imageWidth;
+
+
+	public EncodedImage(BitBuffer encodedData, ImageStatistics statistics, int imageHeight, int imageWidth) {
+		this.encodedData = encodedData;
+		this.statistics = statistics;
+		this.imageHeight = imageHeight;
+		this.imageWidth = imageWidth;
+	} // end constructor
+
+	/**
+	 * Creates an EncodedImage with the same statistics and size but different bits, such as the
+	 * output of a channel.
+	 * @param encodedData The new bit stream.
+	 * @return A new EncodedImage.
+	 */
+	public EncodedImage withEncodedData(BitBuffer encodedData) {
+		return new EncodedImage(encodedData, statistics, imageHeight, imageWidth);
+	} // end withEncodedData()
+
+	/**
+	 * Writes the image as its height and width, the four statistics, the number of bits and then
+	 * the bits, 64 to a long with the first bit most significant.
+	 * @param output Where to write the image.
+	 * @throws IOException If the output fails.
+	 */
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeInt(imageHeight);
+		output.writeInt(imageWidth);
+		output.writeDouble(statistics.getMeanCoeffDC());
+		output.writeDouble(statistics.getMeanCoeffAC());
+		output.writeDouble(statistics.getVarCoeffDC());
+		output.writeDouble(statistics.getVarCoeffAC());
+		output.writeLong(encodedData.size());
+		for (long position = 0; position < encodedData.size(); position += 64) {
+			int numBits = (int) Math.min(64, encodedData.size() - position);
+			output.writeLong(encodedData.read(position, numBits) << (64 - numBits));
+		}
+	} // end writeTo()
+
+	/**
+	 * Reads an image written by writeTo.
+	 * @param input Where to read the image from.
+	 * @return The encoded image.
+	 * @throws IOException If the input fails or is not an encoded image.
+	 */
+	public static EncodedImage readFrom(DataInput input) throws IOException {
+		int imageHeight = input.readInt();
+		int imageWidth = input.readInt();
+		ImageStatistics statistics = new ImageStatistics(input.readDouble(), input.readDouble(), input.readDouble(), input.readDouble());
+		long size = input.readLong();
+		if (imageHeight < 0 || imageWidth < 0 || size < 0)
+			throw new IOException("Corrupt encoded image header");
+		BitBuffer encodedData = new BitBuffer(size);
+		for (long position = 0; position < size; position += 64) {
+			int numBits = (int) Math.min(64, size - position);
+			encodedData.append(input.readLong() >>> (64 - numBits), numBits);
+		}
+		return new EncodedImage(encodedData, statistics, imageHeight, imageWidth);
+	} // end readFrom()
+
+	public BitBuffer getEncodedData() {
+		return encodedData;
+	} // end encodedData accessor
+
+	public ImageStatistics getStatistics() {
+		return statistics;
+	} // end statistics accessor
+
+	public int getImageHeight() {
+		return imageHeight;
+	} // end imageHeight accessor
+
+	public int getImageWidth() {
+		return imageWidth;
+	} // end imageWidth accessor
+
+}
@@ -0,0 +1,42 @@
+/**
+ * The per-block arithmetic of FloatCoder, in single precision. Each kept coefficient of a block has a
+ * lane, and the lanes are padded to FloatCoder.Tables.LANE_MULTIPLE so vector implementations need
+ * no tail loops. Implementations may keep scratch space, so each thread needs its own instance.
+ */
+public interface FloatBlockKernels {
+
+	/**
+	 * Computes the kept DCT coefficients of a block.
+	 * @param block The pixels of the block, in row-major form. It is not modified.
+	 * @param coefficients Receives the kept coefficients, one per lane.
+	 */
+	void transform(float[] block, float[] coefficients);
+
+	/**
+	 * Normalizes coefficients in place, as (coefficient - mean) * invStdDev lane by lane.
+	 * @param coefficients The kept coefficients, one per lane.
+	 * @param means The mean of each lane.
+	 * @param invStdDevs The inverse standard deviation of each lane.
+	 */
+	void normalize(float[] coefficients, float[] means, float[] invStdDevs);
+
+	/**
+	 * Finds the encoding region of each normalized coefficient, which is the number of the thresholds
+	 * of its quantizer that lie below it.
+	 * @param coefficients The normalized coefficients, one per lane.
+	 * @param regions Receives the region of each kept coefficient.
+	 */
+	void quantize(float[] coefficients, int[] regions);
+
+	/**
+	 * De-normalizes decoded coefficients and applies the inverse DCT. The coefficients that are not
+	 * kept are taken to be the fill value.
+	 * @param values The decoded normalized coefficients, one per lane.
+	 * @param stdDevs The standard deviation of each lane.
+	 * @param means The mean of each lane.
+	 * @param fill The value of every coefficient that is not kept.
+	 * @param block Receives the pixels of the block, in row-major form.
+	 */
+	void reconstruct(float[] values, float[] stdDevs, float[] means, float fill, float[] block);
+
+}
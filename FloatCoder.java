@@ -0,0 +1,312 @@
+import java.util.Arrays;
+
+/**
+ * A single-precision version of the Coder pipeline: block transform, normalization, quantization and
+ * reconstruction run in float through FloatBlockKernels, while the image statistics are accumulated in
+ * double. The encoded bits use the same layout as Coder, so either can decode the other's images.
+ *
+ * Only the coefficients the bit allocation keeps are transformed, as with PrunedBlockTransform, and the
+ * statistics of the dropped coefficients are found in the pixel domain in the same way.
+ *
+ * When the jdk.incubator.vector module is in the boot layer and the class VectorFloatKernels (in the
+ * vector directory, compiled with --add-modules jdk.incubator.vector) is on the class path, the kernels
+ * use the Vector API; otherwise they fall back to ScalarFloatKernels.
+ *
+ * Accuracy: single precision moves a few normalized coefficients across the quantizer thresholds.
+ * The PSNR of the decoded image is within PSNR_TOLERANCE decibels of the double precision Coder for
+ * 8-bit images, as checked by FloatCoderBenchmark.
+ */
+public class FloatCoder {
+
+	public static final double PSNR_TOLERANCE = 0.05; // in dB, see FloatCoderBenchmark
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	private static final String VECTOR_KERNELS_CLASS = "VectorFloatKernels";
+
+	private final Tables tables;
+	private final boolean vectorized;
+
+
+	/**
+	 * Builds the float pipeline for a coder, using the Vector API when it is available.
+	 * @param coder The trained coder.
+	 */
+	public FloatCoder(Coder coder) {
+		this(coder, true);
+	} // end constructor
+
+	/**
+	 * @param coder The trained coder.
+	 * @param allowVector Whether the Vector API may be used. With false the scalar kernels always run.
+	 */
+	public FloatCoder(Coder coder, boolean allowVector) {
+		this.tables = new Tables(coder);
+		this.vectorized = allowVector && createVectorKernels(tables) != null;
+	} // end vector constructor
+
+	/**
+	 * @return Whether the kernels use the Vector API.
+	 */
+	public boolean isVectorized() {
+		return vectorized;
+	} // end isVectorized()
+
+	/**
+	 * Encodes an image.
+	 * @param grayScalePixelValues The grayscale value of each pixel, in row-major order.
+	 * @param imageHeight The height of the image, in pixels.
+	 * @param imageWidth The width of the image, in pixels.
+	 * @return The encoded image.
+	 */
+	public EncodedImage encode(float[] grayScalePixelValues, int imageHeight, int imageWidth) {
+		FloatBlockKernels kernels = newKernels();
+		int numLanes = tables.numLanes;
+		int numKept = tables.numKept;
+		int rowFactor = imageHeight / Tables.BLOCK_SIZE; // number of NxN blocks per column
+		int colFactor = imageWidth / Tables.BLOCK_SIZE; // number of NxN blocks per row
+		int numBlocks = rowFactor * colFactor;
+		long numPixelDC = numBlocks; // number of DC pixels
+		long numPixelAC = (long) imageHeight * imageWidth - numPixelDC; // number of AC pixels, counted as in Coder
+		float[] keptCoefficients = new float[numBlocks * numLanes];
+		float[] block = new float[Tables.BLOCK_AREA];
+		float[] blockCoeffs = new float[numLanes];
+
+		// transform every block, and find the statistics in double in the pixel domain: the DC coefficient
+		// is the pixel sum / BLOCK_SIZE, and by Parseval the AC energy is the sum of squared deviations
+		// from the block mean. Blocks are merged with the pairwise update of Chan et al., as in Coder.
+		int numAC = Tables.BLOCK_AREA - 1;
+		double meanDC = 0, meanAC = 0, devDC = 0, devAC = 0;
+		for (int i = 0; i < rowFactor; i++) {
+			for (int j = 0; j < colFactor; j++) {
+				getBlock(grayScalePixelValues, imageWidth, i, j, block);
+				double blockSum = 0, blockSumAC = 0, blockEnergyAC = 0;
+				for (int p = 0; p < Tables.BLOCK_AREA; p++) {
+					blockSum += block[p];
+					blockSumAC += tables.acSumWeights[p] * block[p];
+				}
+				double blockMean = blockSum / Tables.BLOCK_AREA;
+				for (int p = 0; p < Tables.BLOCK_AREA; p++)
+					blockEnergyAC += (block[p] - blockMean) * (block[p] - blockMean);
+				kernels.transform(block, blockCoeffs);
+				System.arraycopy(blockCoeffs, 0, keptCoefficients, (i * colFactor + j) * numLanes, numLanes);
+
+				int numMerged = i * colFactor + j; // blocks merged so far
+				double coeffDC = blockMean * Tables.BLOCK_SIZE;
+				double deltaDC = coeffDC - meanDC;
+				meanDC += deltaDC / (numMerged + 1);
+				devDC += deltaDC * (coeffDC - meanDC);
+				double blockMeanAC = blockSumAC / numAC;
+				double deltaAC = blockMeanAC - meanAC;
+				meanAC += deltaAC / (numMerged + 1);
+				devAC += Math.max(0, blockEnergyAC - blockSumAC * blockMeanAC) + deltaAC * deltaAC * numAC * numMerged / (numMerged + 1);
+			}
+		}
+		// the AC mean is over numPixelAC as in Coder, which also counts the pixels outside whole blocks
+		ImageStatistics statistics = new ImageStatistics(meanDC, meanAC * ((double) numBlocks * numAC / numPixelAC),
+				devDC / numPixelDC, devAC / numPixelAC);
+
+		// normalize and quantize every block
+		float[] means = new float[numLanes], invStdDevs = new float[numLanes];
+		fillLanes(statistics, means, null, invStdDevs);
+		int[] regions = new int[numKept];
+		BitBuffer encodedData = new BitBuffer((long) numBlocks * tables.bitsPerBlock);
+		for (int b = 0; b < numBlocks; b++) {
+			System.arraycopy(keptCoefficients, b * numLanes, blockCoeffs, 0, numLanes);
+			kernels.normalize(blockCoeffs, means, invStdDevs);
+			kernels.quantize(blockCoeffs, regions);
+			for (int k = 0; k < numKept; k++)
+				encodedData.append(tables.regionIndices[k][regions[k]], tables.numBits[k]);
+		}
+		return new EncodedImage(encodedData, statistics, imageHeight, imageWidth);
+	} // end encode()
+
+	/**
+	 * Decodes an encoded image into grayscale pixel values.
+	 * @param encodedImage The encoded image.
+	 * @return The grayscale value of each pixel, in row-major order.
+	 */
+	public float[] decodePixels(EncodedImage encodedImage) {
+		FloatBlockKernels kernels = newKernels();
+		ImageStatistics statistics = encodedImage.getStatistics();
+		int imageHeight = encodedImage.getImageHeight();
+		int imageWidth = encodedImage.getImageWidth();
+		int rowFactor = imageHeight / Tables.BLOCK_SIZE;
+		int colFactor = imageWidth / Tables.BLOCK_SIZE;
+		float[] greyScalePixelValues = new float[imageHeight * imageWidth];
+		float[] means = new float[tables.numLanes], stdDevs = new float[tables.numLanes];
+		fillLanes(statistics, means, stdDevs, null);
+		float fill = (float) statistics.getMeanCoeffAC(); // what the coefficients that are not encoded decode to
+		float[] values = new float[tables.numLanes];
+		float[] block = new float[Tables.BLOCK_AREA];
+		BitReader reader = encodedImage.getEncodedData().reader();
+		for (int i = 0; i < rowFactor; i++) {
+			for (int j = 0; j < colFactor; j++) {
+				for (int k = 0; k < tables.numKept; k++)
+					values[k] = tables.codeWords[k][reader.read(tables.numBits[k])];
+				kernels.reconstruct(values, stdDevs, means, fill, block);
+				for (int row = 0; row < Tables.BLOCK_SIZE; row++)
+					System.arraycopy(block, row * Tables.BLOCK_SIZE, greyScalePixelValues,
+							(i * Tables.BLOCK_SIZE + row) * imageWidth + j * Tables.BLOCK_SIZE, Tables.BLOCK_SIZE);
+			}
+		}
+		return greyScalePixelValues;
+	} // end decodePixels()
+
+	/**
+	 * Computes the peak signal-to-noise ratio of a reconstruction, for 8-bit pixels.
+	 * @param sourceVals The original pixel values.
+	 * @param reconstructedVals The reconstructed pixel values, in the same order.
+	 * @return PSNR in decibels.
+	 */
+	public static double computePSNR(float[] sourceVals, float[] reconstructedVals) {
+		double distortion = 0;
+		for (int index = 0; index < sourceVals.length; index++) {
+			double error = sourceVals[index] - reconstructedVals[index];
+			distortion += error * error;
+		}
+		distortion /= sourceVals.length;
+		return 20 * Math.log10(255) - 10 * Math.log10(distortion);
+	} // end computePSNR()
+
+	/**
+	 * Creates kernels for one encode or decode, so a FloatCoder can be shared between threads.
+	 */
+	private FloatBlockKernels newKernels() {
+		if (vectorized)
+			return createVectorKernels(tables);
+		return new ScalarFloatKernels(tables);
+	} // end newKernels()
+
+	/**
+	 * Loads the Vector API kernels by name, so this class compiles and runs without the incubator module.
+	 * @return The kernels, or null if the module or the class is missing.
+	 */
+	private static FloatBlockKernels createVectorKernels(Tables tables) {
+		if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+			return null;
+		try {
+			return (FloatBlockKernels) Class.forName(VECTOR_KERNELS_CLASS).getConstructor(Tables.class).newInstance(tables);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	} // end createVectorKernels()
+
+	/**
+	 * Sets the DC lane to the DC statistics and the other kept lanes to the AC statistics. Padding
+	 * lanes are left at zero.
+	 */
+	private void fillLanes(ImageStatistics statistics, float[] means, float[] stdDevs, float[] invStdDevs) {
+		for (int k = 0; k < tables.numKept; k++) {
+			boolean isDC = tables.keptPositions[k] == 0;
+			double stdDev = Math.sqrt(isDC ? statistics.getVarCoeffDC() : statistics.getVarCoeffAC());
+			means[k] = (float) (isDC ? statistics.getMeanCoeffDC() : statistics.getMeanCoeffAC());
+			if (stdDevs != null)
+				stdDevs[k] = (float) stdDev;
+			if (invStdDevs != null)
+				invStdDevs[k] = (float) (1 / stdDev);
+		}
+	} // end fillLanes()
+
+	private static void getBlock(float[] pixels, int imageWidth, int blockRow, int blockCol, float[] block) {
+		for (int row = 0; row < Tables.BLOCK_SIZE; row++)
+			System.arraycopy(pixels, (blockRow * Tables.BLOCK_SIZE + row) * imageWidth + blockCol * Tables.BLOCK_SIZE,
+					block, row * Tables.BLOCK_SIZE, Tables.BLOCK_SIZE);
+	} // end getBlock()
+
+	/**
+	 * The precomputed tables of a coder that the kernels work from. Each kept coefficient of a block
+	 * has a lane; lanes past numKept are padding and hold zeros.
+	 */
+	public static class Tables {
+
+		public static final int BLOCK_SIZE = Coder.getBlockSize();
+		public static final int BLOCK_AREA = BLOCK_SIZE * BLOCK_SIZE;
+		public static final int LANE_MULTIPLE = 16; // lanes and threshold lists are padded to this, the widest float vector
+
+		final int numKept, numLanes;
+		final int[] keptPositions;   // [k] : row-major position in the block of lane k
+		final float[] forwardMatrix; // [p * numLanes + k] : weight of pixel p in coefficient k
+		final float[] inverseMatrix; // [k * BLOCK_AREA + p] : weight of coefficient k in pixel p
+		final float[] sumWeights;    // [p] : weight of pixel p in the sum of all the coefficients
+		final double[] acSumWeights; // [p] : weight of pixel p in the sum of the AC coefficients, for the statistics
+		final float[] thresholds;    // region thresholds of every kept coefficient, each list padded with +infinity
+		final int[] thresholdOffsets, thresholdCounts, paddedThresholdCounts;
+		final int[][] regionIndices; // [k][r] : index sent for region r of lane k
+		final float[][] codeWords;   // [k][index] : codeword of lane k
+		final int[] numBits;
+		final int bitsPerBlock;
+
+
+		private Tables(Coder coder) {
+			int[] positions = new int[BLOCK_AREA];
+			int kept = 0;
+			for (int p = 0; p < BLOCK_AREA; p++) {
+				if (coder.getBlockQuantizer(p) != null)
+					positions[kept++] = p;
+			}
+			this.numKept = kept;
+			this.numLanes = (kept + LANE_MULTIPLE - 1) / LANE_MULTIPLE * LANE_MULTIPLE;
+			this.keptPositions = Arrays.copyOf(positions, kept);
+
+			// orthonormal DCT basis, C(u, m) = a(u) cos((2m + 1) u pi / 2N)
+			double[] basis = new double[BLOCK_AREA];
+			double[] weights = new double[BLOCK_SIZE]; // w(m) = sum_u C(u, m)
+			for (int u = 0; u < BLOCK_SIZE; u++) {
+				double scale = Math.sqrt((u == 0 ? 1.0 : 2.0) / BLOCK_SIZE);
+				for (int m = 0; m < BLOCK_SIZE; m++) {
+					basis[u * BLOCK_SIZE + m] = scale * Math.cos((2 * m + 1) * u * Math.PI / (2 * BLOCK_SIZE));
+					weights[m] += basis[u * BLOCK_SIZE + m];
+				}
+			}
+			this.forwardMatrix = new float[BLOCK_AREA * numLanes];
+			this.inverseMatrix = new float[numLanes * BLOCK_AREA];
+			this.sumWeights = new float[BLOCK_AREA];
+			this.acSumWeights = new double[BLOCK_AREA];
+			for (int p = 0; p < BLOCK_AREA; p++) {
+				int m = p / BLOCK_SIZE, n = p % BLOCK_SIZE;
+				sumWeights[p] = (float) (weights[m] * weights[n]);
+				acSumWeights[p] = weights[m] * weights[n] - 1.0 / BLOCK_SIZE; // the DC weight of every pixel is 1 / BLOCK_SIZE
+				for (int k = 0; k < numKept; k++) {
+					int u = keptPositions[k] / BLOCK_SIZE, v = keptPositions[k] % BLOCK_SIZE;
+					float weight = (float) (basis[u * BLOCK_SIZE + m] * basis[v * BLOCK_SIZE + n]);
+					forwardMatrix[p * numLanes + k] = weight;
+					inverseMatrix[k * BLOCK_AREA + p] = weight;
+				}
+			}
+
+			// quantizer regions, codewords and lengths of each lane
+			this.thresholdOffsets = new int[numKept];
+			this.thresholdCounts = new int[numKept];
+			this.paddedThresholdCounts = new int[numKept];
+			this.regionIndices = new int[numKept][];
+			this.codeWords = new float[numKept][];
+			this.numBits = new int[numKept];
+			double[][] laneThresholds = new double[numKept][];
+			int totalThresholds = 0, totalBits = 0;
+			for (int k = 0; k < numKept; k++) {
+				COSQ quantizer = coder.getBlockQuantizer(keptPositions[k]);
+				ChannelOptimizedPartition regions = quantizer.getEncodingRegions();
+				laneThresholds[k] = regions.getThresholds();
+				regionIndices[k] = regions.getIndices();
+				double[] laneCodeWords = quantizer.getCodeWords();
+				codeWords[k] = new float[laneCodeWords.length];
+				for (int index = 0; index < laneCodeWords.length; index++)
+					codeWords[k][index] = (float) laneCodeWords[index];
+				numBits[k] = quantizer.getNumBits();
+				totalBits += numBits[k];
+				thresholdOffsets[k] = totalThresholds;
+				thresholdCounts[k] = laneThresholds[k].length;
+				paddedThresholdCounts[k] = (thresholdCounts[k] + LANE_MULTIPLE - 1) / LANE_MULTIPLE * LANE_MULTIPLE;
+				totalThresholds += paddedThresholdCounts[k];
+			}
+			this.thresholds = new float[totalThresholds];
+			Arrays.fill(thresholds, Float.POSITIVE_INFINITY);
+			for (int k = 0; k < numKept; k++) {
+				for (int r = 0; r < thresholdCounts[k]; r++)
+					thresholds[thresholdOffsets[k] + r] = (float) laneThresholds[k][r];
+			}
+			this.bitsPerBlock = totalBits;
+		} // end constructor
+
+	}
+
+}
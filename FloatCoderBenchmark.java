@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+/**
+ * Compares the float pipeline with the double precision Coder, for PSNR and for per-block throughput.
+ * Run with --add-modules jdk.incubator.vector, and with vector/VectorFloatKernels compiled onto the
+ * class path, to include the Vector API kernels. On AVX-512 hardware, -XX:UseAVX=2 limits the JIT to
+ * AVX2 and the preferred species to 256 bits, as on a machine without AVX-512.
+ */
+public class FloatCoderBenchmark {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int IMAGE_SIZE = 2048;
+	private static final int NUM_RUNS = 7;
+	private static final double BIT_ERROR_RATE = 0.01;
+	private static final int FLAT_IMAGE_SIZE = 256;
+	private static final float[] FLAT_LEVELS = {200f, 128.3f, 77.7f};
+	private static final double FLAT_TOLERANCE = 1e-3; // largest pixel error allowed on a flat image
+
+	public static void main(String[] args) {
+		double[][] image = TestFixtures.syntheticImage(IMAGE_SIZE, IMAGE_SIZE, RNG_SEED);
+		double[] sourceVals = ImageManager.toRowMajor(image);
+		float[] floatSourceVals = new float[sourceVals.length];
+		for (int i = 0; i < sourceVals.length; i++)
+			floatSourceVals[i] = (float) sourceVals[i];
+		int numBlocks = (IMAGE_SIZE / Coder.getBlockSize()) * (IMAGE_SIZE / Coder.getBlockSize());
+
+		for (Channel channel : new Channel[] {null, new Channel(BIT_ERROR_RATE, 0)}) {
+			Coder coder = new Coder(TestFixtures.uniformCOSQs(channel), 1);
+			System.out.println(channel == null ? "Nearest codeword quantizers:" : "Quantizers optimized for a bit error rate of " + BIT_ERROR_RATE + ":");
+
+			// double precision reference
+			for (Coder.TransformType type : Coder.TransformType.values()) {
+				coder.setTransformType(type);
+				long[] times = new long[2];
+				EncodedImage encodedImage = null;
+				double[] decodedPixels = null;
+				times[0] = times[1] = Long.MAX_VALUE;
+				for (int run = 0; run < NUM_RUNS; run++) {
+					long timeInit = System.nanoTime();
+					encodedImage = coder.encode(sourceVals, IMAGE_SIZE, IMAGE_SIZE, null);
+					times[0] = Math.min(times[0], System.nanoTime() - timeInit);
+					timeInit = System.nanoTime();
+					decodedPixels = coder.decodePixels(encodedImage, null);
+					times[1] = Math.min(times[1], System.nanoTime() - timeInit);
+				}
+				System.out.printf("  double %-11s encode %6.1f ns/block, decode %6.1f ns/block, PSNR %.6f dB%n", type,
+						(double) times[0] / numBlocks, (double) times[1] / numBlocks, Coder.computePSNR(sourceVals, decodedPixels));
+			}
+			coder.setTransformType(Coder.TransformType.JTRANSFORMS);
+			double referencePSNR = Coder.computePSNR(sourceVals, coder.decodePixels(coder.encode(sourceVals, IMAGE_SIZE, IMAGE_SIZE, null), null));
+
+			// float pipeline, scalar and vector
+			for (boolean allowVector : new boolean[] {false, true}) {
+				FloatCoder floatCoder = new FloatCoder(coder, allowVector);
+				if (allowVector && !floatCoder.isVectorized()) {
+					System.out.println("  float vector: jdk.incubator.vector or VectorFloatKernels not available");
+					continue;
+				}
+				long encodeTime = Long.MAX_VALUE, decodeTime = Long.MAX_VALUE;
+				EncodedImage encodedImage = null;
+				float[] decodedPixels = null;
+				for (int run = 0; run < NUM_RUNS; run++) {
+					long timeInit = System.nanoTime();
+					encodedImage = floatCoder.encode(floatSourceVals, IMAGE_SIZE, IMAGE_SIZE);
+					encodeTime = Math.min(encodeTime, System.nanoTime() - timeInit);
+					timeInit = System.nanoTime();
+					decodedPixels = floatCoder.decodePixels(encodedImage);
+					decodeTime = Math.min(decodeTime, System.nanoTime() - timeInit);
+				}
+				double psnr = FloatCoder.computePSNR(floatSourceVals, decodedPixels);
+				double crossPSNR = Coder.computePSNR(sourceVals, coder.decodePixels(encodedImage, null)); // float bits, double decoder
+				System.out.printf("  float %-12s encode %6.1f ns/block, decode %6.1f ns/block, PSNR %.6f dB (%.6f decoded in double),"
+						+ " %s tolerance%n", allowVector ? "vector" : "scalar", (double) encodeTime / numBlocks, (double) decodeTime / numBlocks,
+						psnr, crossPSNR, Math.abs(psnr - referencePSNR) <= FloatCoder.PSNR_TOLERANCE
+						&& Math.abs(crossPSNR - referencePSNR) <= FloatCoder.PSNR_TOLERANCE ? "within" : "OUTSIDE");
+
+				// a flat image has no variance, which must not come out negative or spurious
+				for (float level : FLAT_LEVELS) {
+					float[] flatPixels = new float[FLAT_IMAGE_SIZE * FLAT_IMAGE_SIZE];
+					Arrays.fill(flatPixels, level);
+					EncodedImage flatImage = floatCoder.encode(flatPixels, FLAT_IMAGE_SIZE, FLAT_IMAGE_SIZE);
+					ImageStatistics statistics = flatImage.getStatistics();
+					double maxError = 0;
+					for (float pixel : floatCoder.decodePixels(flatImage))
+						maxError = Float.isNaN(pixel) ? Double.NaN : Math.max(maxError, Math.abs(pixel - level));
+					System.out.printf("    flat image at %s: variances %.3g, %.3g, largest pixel error %.3g %s%n", level,
+							statistics.getVarCoeffDC(), statistics.getVarCoeffAC(), maxError, statistics.getVarCoeffDC() >= 0
+							&& statistics.getVarCoeffAC() >= 0 && maxError < FLAT_TOLERANCE ? "(ok)" : "(WRONG)");
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Multiplies the temperature by a constant after every stage, stopping below a final temperature.
+ */
+public class GeometricSchedule implements AnnealingSchedule {
+
+	/**
+	 * Simulated annealing parameters from Julian's thesis.
+	 */
+	public static final GeometricSchedule THESIS = new GeometricSchedule(10, 0.00025, 0.97, 200);
+
+	private final double initialTemp, finalTemp, coolingMultiplier;
+	private final int maxPerturbations;
+
+
+	/**
+	 * @param initialTemp Temperature of the first stage.
+	 * @param finalTemp Annealing stops once the temperature drops below this.
+	 * @param coolingMultiplier Factor applied to the temperature after each stage, between 0 and 1.
+	 * @param maxPerturbations Number of perturbations in a row without a new best energy that end a stage.
+	 */
+	public GeometricSchedule(double initialTemp, double finalTemp, double coolingMultiplier, int maxPerturbations) {
+		if (!(initialTemp > 0 && finalTemp > 0 && coolingMultiplier > 0 && coolingMultiplier < 1 && maxPerturbations > 0))
+			throw new IllegalArgumentException("Invalid geometric schedule");
+		this.initialTemp = initialTemp;
+		this.finalTemp = finalTemp;
+		this.coolingMultiplier = coolingMultiplier;
+		this.maxPerturbations = maxPerturbations;
+	} // end constructor
+
+	@Override
+	public double getInitialTemperature() {
+		return initialTemp;
+	} // end getInitialTemperature()
+
+	@Override
+	public int getMaxPerturbations() {
+		return maxPerturbations;
+	} // end getMaxPerturbations()
+
+	@Override
+	public double nextTemperature(double temp, double acceptanceRate, long elapsedNanos) {
+		double nextTemp = temp * coolingMultiplier;
+		return nextTemp >= finalTemp ? nextTemp : 0;
+	} // end nextTemperature()
+
+}
@@ -0,0 +1,67 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class ImageIngestionTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int IMAGE_SIZE = 2048;
+	private static final int NUM_RUNS = 5;
+
+	public static void main(String[] args) {
+		Random randomNumberGenerator = new Random(RNG_SEED);
+		for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB}) {
+			BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, type);
+			for (int i = 0; i < IMAGE_SIZE; i++) {
+				for (int j = 0; j < IMAGE_SIZE; j++)
+					image.getRaster().setPixel(j, i, new int[] {randomNumberGenerator.nextInt(256),
+							randomNumberGenerator.nextInt(256), randomNumberGenerator.nextInt(256)});
+			}
+
+			// the bulk path must read the same values as one getRGB or getSample call per pixel
+			double[] grayScaleValues = null;
+			long bulkTime = Long.MAX_VALUE, perPixelTime = Long.MAX_VALUE;
+			double[] perPixelValues = new double[IMAGE_SIZE * IMAGE_SIZE];
+			for (int run = 0; run < NUM_RUNS; run++) {
+				long timeInit = System.nanoTime();
+				grayScaleValues = ImageManager.getGrayScaleValues(image, grayScaleValues);
+				bulkTime = Math.min(bulkTime, System.nanoTime() - timeInit);
+				timeInit = System.nanoTime();
+				readPerPixel(image, 0, 0, IMAGE_SIZE, IMAGE_SIZE, perPixelValues);
+				perPixelTime = Math.min(perPixelTime, System.nanoTime() - timeInit);
+			}
+			int mismatches = countMismatches(grayScaleValues, perPixelValues);
+
+			// a subimage shares the data buffer of its parent at an offset
+			BufferedImage subimage = image.getSubimage(13, 7, 100, 60);
+			double[] subimageValues = new double[100 * 60];
+			readPerPixel(image, 13, 7, 100, 60, subimageValues);
+			mismatches += countMismatches(ImageManager.getGrayScaleValues(subimage, null), subimageValues);
+
+			System.out.println("Image type " + type + ": " + mismatches + " mismatches, bulk " + bulkTime / 1000000
+					+ " ms, per pixel " + perPixelTime / 1000000 + " ms");
+		}
+	}
+
+	private static void readPerPixel(BufferedImage image, int x, int y, int width, int height, double[] values) {
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+					values[i * width + j] = image.getRaster().getSample(x + j, y + i, 0);
+				} else {
+					int rgb = image.getRGB(x + j, y + i);
+					values[i * width + j] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3.0;
+				}
+			}
+		}
+	}
+
+	private static int countMismatches(double[] actual, double[] expected) {
+		int mismatches = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (actual[i] != expected[i])
+				mismatches++;
+		}
+		return mismatches;
+	}
+
+}
@@ -1,6 +1,10 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -16,14 +20,98 @@ public class ImageManager {
 		int height = img.getHeight();
 		int width = img.getWidth();
 		
-		double[][] grayScaleValues = new double[height][width];
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++)
-				grayScaleValues[i][j] = getGrayScaleValueFromRGB(img.getRGB(j, i));
-		}
+		double[] rowMajorValues = getGrayScaleValues(img, null);
+		double[][] grayScaleValues = new double[height][];
+		for (int i = 0; i < height; i++)
+			grayScaleValues[i] = Arrays.copyOfRange(rowMajorValues, i * width, (i + 1) * width);
 		return grayScaleValues;
 	} // end getGrayScalePixelValues()
 	
+	/**
+	 * Converts an image to grayscale values in row-major order, reusing a buffer when it is large enough.
+	 * Byte gray and 3-byte BGR images are read straight from their data buffer a row at a time. Gray
+	 * samples are taken as they are stored, without the color space conversion of getRGB, so they
+	 * match what getBufferedImageFromGrayScaleValues writes. Other images are converted with bulk
+	 * getRGB calls, one row at a time.
+	 * @param img The image.
+	 * @param grayScaleValues Buffer for the values, or null.
+	 * @return The buffer holding the grayscale values, either grayScaleValues or a new array if it was too small.
+	 */
+	public static double[] getGrayScaleValues(BufferedImage img, double[] grayScaleValues) {
+		int height = img.getHeight();
+		int width = img.getWidth();
+		if (grayScaleValues == null || grayScaleValues.length < height * width)
+			grayScaleValues = new double[height * width];
+		
+		WritableRaster raster = img.getRaster();
+		int type = img.getType();
+		if ((type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_3BYTE_BGR)
+				&& raster.getSampleModel() instanceof ComponentSampleModel && raster.getDataBuffer() instanceof DataBufferByte) {
+			ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+			DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+			int[] bankIndices = sampleModel.getBankIndices();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			int scanlineStride = sampleModel.getScanlineStride();
+			int pixelStride = sampleModel.getPixelStride();
+			int originX = raster.getMinX() - raster.getSampleModelTranslateX(); // position of the image in the sample model
+			int originY = raster.getMinY() - raster.getSampleModelTranslateY();
+			if (type == BufferedImage.TYPE_BYTE_GRAY) {
+				byte[] gray = dataBuffer.getData(bankIndices[0]);
+				int offset = dataBuffer.getOffsets()[bankIndices[0]] + bandOffsets[0] + originY * scanlineStride + originX * pixelStride;
+				for (int i = 0; i < height; i++) {
+					int index = offset + i * scanlineStride;
+					int rowStart = i * width;
+					for (int j = 0; j < width; j++, index += pixelStride)
+						grayScaleValues[rowStart + j] = gray[index] & 0xFF;
+				}
+			} else if (bankIndices[0] == bankIndices[1] && bankIndices[1] == bankIndices[2]) {
+				byte[] data = dataBuffer.getData(bankIndices[0]);
+				int offset = dataBuffer.getOffsets()[bankIndices[0]] + originY * scanlineStride + originX * pixelStride;
+				int offset0 = bandOffsets[0], offset1 = bandOffsets[1], offset2 = bandOffsets[2];
+				for (int i = 0; i < height; i++) {
+					int index = offset + i * scanlineStride;
+					int rowStart = i * width;
+					for (int j = 0; j < width; j++, index += pixelStride) // bands are R, G and B
+						grayScaleValues[rowStart + j] = ((data[index + offset0] & 0xFF) + (data[index + offset1] & 0xFF)
+								+ (data[index + offset2] & 0xFF)) / 3.0;
+				}
+			} else {
+				getGrayScaleValuesFromRGB(img, grayScaleValues);
+			}
+		} else {
+			getGrayScaleValuesFromRGB(img, grayScaleValues);
+		}
+		return grayScaleValues;
+	} // end getGrayScaleValues()
+	
+	/**
+	 * Loads an image.
+	 * @param filename The filename of the image.
+	 * @return The image, or null if it could not be read.
+	 */
+	public static BufferedImage getImageFromFilename(String filename) {
+		BufferedImage img = null;
+		try {
+		    img = ImageIO.read(new File(filename));
+		} catch (IOException e) {
+			System.out.println("Invalid image filename was input.");
+		}
+		return img;
+	} // end getImageFromFilename()
+	
+	/**
+	 * Copies a 2d array of pixel values into a single array in row-major order.
+	 * @param grayScaleValues The grayscale values, indexed [row][column].
+	 * @return The grayscale values in row-major order.
+	 */
+	public static double[] toRowMajor(double[][] grayScaleValues) {
+		int width = grayScaleValues[0].length;
+		double[] rowMajorValues = new double[grayScaleValues.length * width];
+		for (int i = 0; i < grayScaleValues.length; i++)
+			System.arraycopy(grayScaleValues[i], 0, rowMajorValues, i * width, width);
+		return rowMajorValues;
+	} // end toRowMajor()
+	
 	/**
 	 * Generates an image, given the grayscale values for each pixel.
 	 * @param grayScaleValues The grayscale values for each pixel, in row-major order.
@@ -37,15 +125,19 @@ public class ImageManager {
         return recoveredImg;
 	} // end getBufferedImageFromGrayScaleValues()
 	
-	private static BufferedImage getImageFromFilename(String filename) {
-		BufferedImage img = null;
-		try {
-		    img = ImageIO.read(new File(filename));
-		} catch (IOException e) {
-			System.out.println("Invalid image filename was input.");
+	/**
+	 * Converts any image to grayscale values with one getRGB call per row.
+	 */
+	private static void getGrayScaleValuesFromRGB(BufferedImage img, double[] grayScaleValues) {
+		int height = img.getHeight();
+		int width = img.getWidth();
+		int[] rgbRow = new int[width];
+		for (int i = 0; i < height; i++) {
+			img.getRGB(0, i, width, 1, rgbRow, 0, width);
+			for (int j = 0; j < width; j++)
+				grayScaleValues[i * width + j] = getGrayScaleValueFromRGB(rgbRow[j]);
 		}
-		return img;
-	} // end getImageFromFilename()
+	} // end getGrayScaleValuesFromRGB()
 	
 	// see http://stackoverflow.com/questions/15972490/bufferedimage-getting-the-value-of-a-pixel-in-grayscale-color-model-picture
 	private static double getGrayScaleValueFromRGB(int rgb) {
@@ -0,0 +1,37 @@
+/**
+ * Sample statistics of the DCT coefficients of one image. The encoder normalizes the coefficients
+ * with them and the decoder needs the same values to de-normalize, so they travel with the
+ * encoded image rather than living in the Coder.
+ */
+public class ImageStatistics {
+
+	private final double meanCoeffDC;	// sample mean of the DC coefficients produced by the DCT
+	private final double meanCoeffAC;	// sample mean of the AC coefficients produced by the DCT
+	private final double varCoeffDC;	// sample variance of the DC coefficients produced by the DCT
+	private final double varCoeffAC;	// sample variance of the AC coefficients produced by the DCT
+
+
+	public ImageStatistics(double meanCoeffDC, double meanCoeffAC, double varCoeffDC, double varCoeffAC) {
+		this.meanCoeffDC = meanCoeffDC;
+		this.meanCoeffAC = meanCoeffAC;
+		this.varCoeffDC = varCoeffDC;
+		this.varCoeffAC = varCoeffAC;
+	} // end constructor
+
+	public double getMeanCoeffDC() {
+		return meanCoeffDC;
+	} // end meanCoeffDC accessor
+
+	public double getMeanCoeffAC() {
+		return meanCoeffAC;
+	} // end meanCoeffAC accessor
+
+	public double getVarCoeffDC() {
+		return varCoeffDC;
+	} // end varCoeffDC accessor
+
+	public double getVarCoeffAC() {
+		return varCoeffAC;
+	} // end varCoeffAC accessor
+
+}
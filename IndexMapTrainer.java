@@ -1,17 +1,23 @@
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class IndexMapTrainer{
 	
-	// Simulated annealing parameters from Julian's thesis
-	private final double TEMP_INIT = 10;
-	private final double TEMP_FINAL = 0.00025;
-	private final double COOLING_MULTIPLIER = 0.97;
-	private final double MAX_PERTURBATIONS = 200;
+	private static final long DEFAULT_SEED = 123456789;
 	
-	public final double[][] CONDITIONAL_PROB; 				// [i][j] : Conditional probability of changing from index i to index j
+	// Simulated annealing settings, the thesis schedule unless changed
+	private AnnealingSchedule schedule = GeometricSchedule.THESIS;
+	private int stagnationLimit = 0; 						// stages without a new best energy before a chain stops, 0 for no limit
+	private AnnealingObserver observer = null;
+	
+	private final double[] CONDITIONAL_PROB; 				// [i * SIZE + j] : Conditional probability of changing from index i to index j, shared with the channel
+	private final double[][] DISTANCES; 					// [i][j] : Squared distance between codewords i and j
 	
 	// Codebook & relevant parameters
 	private final List<Double> codebook;
@@ -30,99 +36,263 @@ public class IndexMapTrainer{
 		this.codebook = codebook;
 		this.SIZE = codebook.size();
 		this.NUM_BITS = (int) (Math.log(codebook.size())/Math.log(2));
-		this.CONDITIONAL_PROB = trainingChannel.initializeConditionalProb(SIZE);
+		this.CONDITIONAL_PROB = trainingChannel.getTransitionMatrix(SIZE);
+		this.DISTANCES = new double[SIZE][SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++)
+				DISTANCES[i][j] = (codebook.get(i) - codebook.get(j)) * (codebook.get(i) - codebook.get(j));
+		}
 	}
 	
 	/**
-	 * Train the index map. Uses the Simulated Annealing (SA) algorithm presented in Julian's thesis.
-	 * Note that "state" is the index map in a non-binary form, and the name comes from SA convention.
-	 * Additionally, note that the term "energy" is equivalent to expected distortion, but is named as such due to SA convention.
+	 * Sets the cooling schedule. Must not be called while training.
+	 * @param schedule The schedule, shared by all chains.
+	 */
+	public void setSchedule(AnnealingSchedule schedule) {
+		if (schedule == null)
+			throw new IllegalArgumentException("Schedule must not be null");
+		this.schedule = schedule;
+	}
+	
+	/**
+	 * Stops a chain early once its best energy has not improved for a number of stages in a row.
+	 * Must not be called while training.
+	 * @param stagnationLimit Number of stages, or 0 to always follow the schedule to the end.
+	 */
+	public void setStagnationLimit(int stagnationLimit) {
+		if (stagnationLimit < 0)
+			throw new IllegalArgumentException("Stagnation limit must not be negative: " + stagnationLimit);
+		this.stagnationLimit = stagnationLimit;
+	}
+	
+	/**
+	 * Sets an observer that receives the energy and temperature of every stage. Must not be called while training.
+	 * @param observer The observer, or null for none.
+	 */
+	public void setObserver(AnnealingObserver observer) {
+		this.observer = observer;
+	}
+	
+	/**
+	 * Train the index map with a single annealing chain and the default seed, so the result is repeatable.
 	 * @return Codebook permuted according to the indexMap
 	 */
 	public List<Double> train(){
+		return train(1, DEFAULT_SEED, null);
+	}
+	
+	/**
+	 * Train the index map with several independent annealing chains, run in parallel on a pool with one
+	 * thread per processor, and keep the best result.
+	 * @param numChains Number of chains.
+	 * @param seed Seed of the chains. The same seed and number of chains always give the same result.
+	 * @return Codebook permuted according to the best indexMap found.
+	 */
+	public List<Double> train(int numChains, long seed) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numChains, Runtime.getRuntime().availableProcessors()));
+		try {
+			return train(numChains, seed, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Train the index map with several independent annealing chains and keep the best result.
+	 * The first chain starts from the identity map and the others from random maps. Each chain has its
+	 * own random number generator, split from the seed in chain order, so the result does not depend
+	 * on how the chains are scheduled.
+	 * @param numChains Number of chains.
+	 * @param seed Seed of the chains. The same seed and number of chains always give the same result.
+	 * @param executor Runs the chains, or null to run them one after another on this thread.
+	 * @return Codebook permuted according to the best indexMap found.
+	 */
+	public List<Double> train(int numChains, long seed, ExecutorService executor) {
+		if (numChains <= 0)
+			throw new IllegalArgumentException("Number of chains must be positive: " + numChains);
+		SplittableRandom seeds = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[numChains];
+		for (int chain = 0; chain < numChains; chain++)
+			randoms[chain] = seeds.split();
+		
+		List<int[]> states = new ArrayList<>(numChains);
+		if (executor == null) {
+			for (int chain = 0; chain < numChains; chain++)
+				states.add(anneal(chain, randoms[chain]));
+		}
+		else {
+			List<Future<int[]>> futures = new ArrayList<>(numChains);
+			for (int chain = 0; chain < numChains; chain++) {
+				int chainNumber = chain;
+				SplittableRandom random = randoms[chain];
+				futures.add(executor.submit(() -> anneal(chainNumber, random)));
+			}
+			try {
+				for (Future<int[]> future : futures)
+					states.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while training index map", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		
+		// keep the best chain, preferring the earlier chain on a tie
+		int[] bestState = states.get(0);
+		double bestEnergy = expectedDistortion(bestState);
+		for (int chain = 1; chain < numChains; chain++) {
+			double energy = expectedDistortion(states.get(chain));
+			if (energy < bestEnergy) {
+				bestEnergy = energy;
+				bestState = states.get(chain);
+			}
+		}
+
+		// create new codebook
+		List<Double> permutedCodebook = new ArrayList<Double>(SIZE);
+		for (int i = 0; i < SIZE; i++)
+			permutedCodebook.add((double) 0);
+		for (int i = 0; i < SIZE; i++)
+			permutedCodebook.set(bestState[i], codebook.get(i));
+		return permutedCodebook;
+	}
+	
+	/**
+	 * Runs one annealing chain. Uses the Simulated Annealing (SA) algorithm presented in Julian's thesis.
+	 * Note that "state" is the index map in a non-binary form, and the name comes from SA convention.
+	 * Additionally, note that the term "energy" is equivalent to expected distortion, but is named as such due to SA convention.
+	 * Each perturbation swaps the indices of two codewords, so its change in energy costs O(K) and no allocation.
+	 * The temperature follows the schedule, and the chain stops early if it stagnates or the schedule's deadline passes.
+	 * @param chain Number of the chain. Chain 0 starts from the identity map, the others from a random state.
+	 * @param random Random number generator of this chain.
+	 * @return The best state found, where [i] is the index assigned to codeword i.
+	 */
+	private int[] anneal(int chain, SplittableRandom random) {
+		AnnealingSchedule schedule = this.schedule;
+		AnnealingObserver observer = this.observer;
+		long timeInit = System.nanoTime();
 		
 		// Initialize State
-		ArrayList<Integer> state = new ArrayList<Integer>(SIZE);
-		ArrayList<Integer> nextState;
+		int[] state = new int[SIZE]; 						// [i] : index assigned to codeword i
 		for (int i = 0; i < SIZE; i++)
-			state.add(i);
-		ArrayList<Integer> bestState = new ArrayList<Integer>(state);
+			state[i] = i;
+		if (chain > 0) {
+			for (int i = SIZE - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = state[i];
+				state[i] = state[j];
+				state[j] = swap;
+			}
+		}
+		int[] bestState = state.clone();
+		if (schedule.isPastDeadline())
+			return bestState; // started too late to anneal
 		
 		// Initialize System
-		double temp = TEMP_INIT;
+		double temp = schedule.getInitialTemperature();
+		int maxPerturbations = schedule.getMaxPerturbations();
 		int numPertubations = 0;
-		// Collections.shuffle(state); // Random initial state
 		double energy = expectedDistortion(state);
-		double newEnergy;
 		double oldEnergy = energy;
 		double changeInEnergy; 		// delta in thesis
-		
-		System.out.println("Simulating annealing for rate " + this.NUM_BITS);
+		int stage = 0;
+		int numStagnantStages = 0;
 		
 		// SA algorithm
-		while(temp >= TEMP_FINAL) {
+		while(temp > 0 && SIZE > 1) {
 			numPertubations = 0;
-			while(numPertubations++ < MAX_PERTURBATIONS) {
-				// Randomly select new state
-				nextState = new ArrayList<Integer>(state);
-				Collections.shuffle(nextState);
-				newEnergy = expectedDistortion(nextState);
-				changeInEnergy = newEnergy - energy;
+			long numProposed = 0, numAccepted = 0;
+			double stageInitEnergy = oldEnergy;
+			while(numPertubations++ < maxPerturbations) {
+				// Randomly select two codewords to swap indices
+				int a = random.nextInt(SIZE);
+				int b = random.nextInt(SIZE - 1);
+				if (b >= a)
+					b++;
+				changeInEnergy = swapDelta(state, a, b);
+				numProposed++;
 				
 				// Decide whether to accept new state
-				if (changeInEnergy < 0) {
-					state = new ArrayList<Integer>(nextState);
-					energy = newEnergy;
-				}
-				else if (acceptNewState(changeInEnergy, temp)) {
-					state = new ArrayList<Integer>(nextState);
-					energy = newEnergy;
+				if (changeInEnergy < 0 || acceptNewState(changeInEnergy, temp, random)) {
+					int swap = state[a];
+					state[a] = state[b];
+					state[b] = swap;
+					energy += changeInEnergy;
+					numAccepted++;
 				}
 				
 				// Check to see if energy has dropped
 				if (energy < oldEnergy) {
 					numPertubations = 0;
 					oldEnergy = energy;
-					bestState = state;
+					System.arraycopy(state, 0, bestState, 0, SIZE);
 				}
 			}
 			
-			temp *= COOLING_MULTIPLIER; // cool system
+			double acceptanceRate = (double) numAccepted / numProposed;
+			if (observer != null)
+				observer.stageFinished(chain, stage, temp, energy, oldEnergy, acceptanceRate);
+			
+			// stop early once the best energy has stopped improving
+			numStagnantStages = oldEnergy < stageInitEnergy ? 0 : numStagnantStages + 1;
+			if (stagnationLimit > 0 && numStagnantStages >= stagnationLimit || schedule.isPastDeadline())
+				break;
+			
+			temp = schedule.nextTemperature(temp, acceptanceRate, System.nanoTime() - timeInit); // cool system
+			stage++;
 		}
-
-		// create new codebook
-		List<Double> permutedCodebook = new ArrayList<Double>(SIZE);
-		for (int i = 0; i < SIZE; i++)
-			permutedCodebook.add((double) 0);
-		for (int i = 0; i < SIZE; i++)
-			permutedCodebook.set(bestState.get(i), codebook.get(i));
-		return permutedCodebook;
+		return bestState;
 	}
 	
 	/**
-	 * Computes whether the next state will be accepted or not.
+	 * Computes whether a state with higher energy will be accepted or not, using the Metropolis criterion.
 	 * @param changeInEnergy Change in energy between new state and old state.
 	 * @param temp Temperature of the system.
+	 * @param random Source of randomness.
 	 * @return	Boolean informing the algorithm whether or not to accept the new state.
 	 */
-	private boolean acceptNewState(double changeInEnergy, double temp) {
-		double random = Math.random();
-		return (random > Math.exp(-changeInEnergy / temp));
+	private boolean acceptNewState(double changeInEnergy, double temp, SplittableRandom random) {
+		return random.nextDouble() < Math.exp(-changeInEnergy / temp);
 	}
 
 	/**
-	 * Computes the expected distortion (energy) using the user-provided set of training data.
-	 * @param trainingData	List of source words generated by some distribution.
+	 * Computes the expected distortion (energy) of a state.
 	 * @param state	Current state of the system.
 	 * @return Expected distortion (energy).
 	 */
-	private double expectedDistortion(ArrayList<Integer> state) {
+	double expectedDistortion(int[] state) {
 		double expectedDistortion = 0;
 		for (int i = 0; i < SIZE; i++) {
 			for (int j = 0; j < SIZE; j ++)
-				expectedDistortion += CONDITIONAL_PROB[state.get(i)][state.get(j)] * Math.pow(codebook.get(i) - codebook.get(j), 2);
+				expectedDistortion += CONDITIONAL_PROB[state[i] * SIZE + state[j]] * DISTANCES[i][j];
 		}
 		return expectedDistortion;
 	}
-}
 
+	/**
+	 * Computes the change in energy if codewords a and b swapped indices. Only the terms of rows
+	 * and columns a and b change, and since the distances are symmetric the terms pairing a with b
+	 * cancel, leaving one pass over the other codewords.
+	 * @param state	Current state of the system.
+	 * @param a First codeword.
+	 * @param b Second codeword, different from a.
+	 * @return Change in expected distortion (energy).
+	 */
+	double swapDelta(int[] state, int a, int b) {
+		int indexA = state[a], indexB = state[b];
+		int rowA = indexA * SIZE, rowB = indexB * SIZE;
+		double[] distancesA = DISTANCES[a], distancesB = DISTANCES[b];
+		double changeInEnergy = 0;
+		for (int j = 0; j < SIZE; j++) {
+			if (j == a || j == b)
+				continue;
+			int indexJ = state[j];
+			changeInEnergy += (distancesA[j] - distancesB[j]) * (CONDITIONAL_PROB[rowB + indexJ] - CONDITIONAL_PROB[rowA + indexJ]
+					+ CONDITIONAL_PROB[indexJ * SIZE + indexB] - CONDITIONAL_PROB[indexJ * SIZE + indexA]);
+		}
+		return changeInEnergy;
+	}
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class IndexMapTrainerTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int NUM_SWAPS = 20000;
+	private static final int NUM_CHAINS = 6;
+	private static final GeometricSchedule FAST_SCHEDULE = new GeometricSchedule(1, 0.001, 0.8, 100);
+	private static final long BUDGET_MILLIS = 150;
+	private static final int STAGNATION_LIMIT = 3;
+
+	public static void main(String[] args) {
+		Random randomNumberGenerator = new Random(RNG_SEED);
+
+		// the incremental change in energy of a swap must match recomputing the whole energy
+		double worstError = 0;
+		for (int size : new int[] {2, 4, 16, 64}) {
+			for (Channel channel : new Channel[] {new Channel(0.05, 0), new Channel(0.1, 5), new Channel(0.02, 2, 3)}) {
+				IndexMapTrainer trainer = new IndexMapTrainer(generateCodebook(size, randomNumberGenerator), channel);
+				int[] state = randomState(size, randomNumberGenerator);
+				double energy = trainer.expectedDistortion(state);
+				for (int n = 0; n < NUM_SWAPS / size; n++) {
+					int a = randomNumberGenerator.nextInt(size);
+					int b = randomNumberGenerator.nextInt(size - 1);
+					if (b >= a)
+						b++;
+					double delta = trainer.swapDelta(state, a, b);
+					int swap = state[a];
+					state[a] = state[b];
+					state[b] = swap;
+					double newEnergy = trainer.expectedDistortion(state);
+					worstError = Math.max(worstError, Math.abs(energy + delta - newEnergy) / (1 + Math.abs(newEnergy)));
+					energy = newEnergy;
+				}
+			}
+		}
+		System.out.println("Swap delta against full recompute: worst relative error " + worstError + (worstError < 1e-9 ? " (ok)" : " (TOO LARGE)"));
+
+		// the same seed must give the same codebook however the chains are scheduled
+		List<Double> codebook = generateCodebook(32, randomNumberGenerator);
+		Channel channel = new Channel(0.05, 2);
+		IndexMapTrainer trainer = new IndexMapTrainer(codebook, channel);
+		trainer.setSchedule(FAST_SCHEDULE);
+		List<Double> sequential = trainer.train(NUM_CHAINS, RNG_SEED, null);
+		boolean reproducible = true;
+		for (int numThreads : new int[] {1, 2, NUM_CHAINS}) {
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			reproducible &= trainer.train(NUM_CHAINS, RNG_SEED, executor).equals(sequential);
+			executor.shutdown();
+		}
+		reproducible &= trainer.train(NUM_CHAINS, RNG_SEED).equals(sequential);
+		System.out.println("Same seed, 1 to " + NUM_CHAINS + " threads: " + (reproducible ? "same codebook" : "DIFFERENT CODEBOOKS")
+				+ ", another seed: " + (trainer.train(NUM_CHAINS, RNG_SEED + 1, null).equals(sequential) ? "same codebook" : "different codebook"));
+
+		// the schedules
+		GeometricSchedule geometric = new GeometricSchedule(10, 1, 0.5, 100);
+		AdaptiveSchedule adaptive = new AdaptiveSchedule(10, 1, 0.5, 0.9, 0.8, 100);
+		TimeBudgetedSchedule budgeted = new TimeBudgetedSchedule(10, 0.1, 1000, 100);
+		boolean schedulesOk = geometric.nextTemperature(10, 0, 0) == 5 && geometric.nextTemperature(1.5, 0, 0) == 0
+				&& adaptive.nextTemperature(10, 0.9, 0) == 5 && adaptive.nextTemperature(10, 0.5, 0) == 9
+				&& adaptive.nextTemperature(1.05, 0.5, 0) == 0 && Math.abs(budgeted.nextTemperature(10, 0, 500000000L) - 1) < 1e-9
+				&& budgeted.nextTemperature(10, 0, 1000000000L) == 0 && !budgeted.isPastDeadline();
+		System.out.println("Schedule temperatures: " + (schedulesOk ? "as expected" : "WRONG"));
+
+		// a budget per chain lets queued chains run one after another, a window stops them all at its end
+		trainer = new IndexMapTrainer(generateCodebook(128, randomNumberGenerator), channel);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		trainer.setSchedule(new TimeBudgetedSchedule(10, 0.00025, BUDGET_MILLIS, 200));
+		long timeInit = System.nanoTime();
+		trainer.train(NUM_CHAINS, RNG_SEED, executor);
+		long perChainMillis = (System.nanoTime() - timeInit) / 1000000;
+		trainer.setSchedule(TimeBudgetedSchedule.forWindow(10, 0.00025, BUDGET_MILLIS, 200));
+		timeInit = System.nanoTime();
+		trainer.train(NUM_CHAINS, RNG_SEED, executor);
+		long windowMillis = (System.nanoTime() - timeInit) / 1000000;
+		executor.shutdown();
+		System.out.println(NUM_CHAINS + " chains on 1 thread, " + BUDGET_MILLIS + " ms each: " + perChainMillis + " ms; within a "
+				+ BUDGET_MILLIS + " ms window: " + windowMillis + " ms" + (windowMillis < 2 * BUDGET_MILLIS ? " (ok)" : " (OVER THE WINDOW)"));
+
+		// the observer sees every stage in order, and a chain stops after STAGNATION_LIMIT stages without a new best
+		trainer = new IndexMapTrainer(generateCodebook(32, randomNumberGenerator), channel);
+		trainer.setSchedule(new GeometricSchedule(10, 1e-12, 0.97, 50));
+		trainer.setStagnationLimit(STAGNATION_LIMIT);
+		List<double[]> stages = Collections.synchronizedList(new ArrayList<>()); // {chain, stage, best energy}
+		trainer.setObserver((chain, stage, temp, energy, bestEnergy, acceptanceRate) -> stages.add(new double[] {chain, stage, bestEnergy}));
+		trainer.train(NUM_CHAINS, RNG_SEED, null);
+		boolean observerOk = true, stoppedOnStagnation = true;
+		for (int chain = 0; chain < NUM_CHAINS; chain++) {
+			List<Double> bestEnergies = new ArrayList<>();
+			for (double[] record : stages) {
+				if (record[0] == chain) {
+					observerOk &= record[1] == bestEnergies.size() && (bestEnergies.isEmpty() || record[2] <= bestEnergies.get(bestEnergies.size() - 1));
+					bestEnergies.add(record[2]);
+				}
+			}
+			int last = bestEnergies.size() - 1;
+			observerOk &= last >= 0;
+			int numStagnant = 0;
+			while (numStagnant < last && bestEnergies.get(last - numStagnant).equals(bestEnergies.get(last - numStagnant - 1)))
+				numStagnant++;
+			stoppedOnStagnation &= numStagnant == STAGNATION_LIMIT;
+		}
+		System.out.println("Observer: " + stages.size() + " stages over " + NUM_CHAINS + " chains, " + (observerOk ? "in order" : "OUT OF ORDER")
+				+ ", every chain stopped after " + STAGNATION_LIMIT + " stagnant stages: " + stoppedOnStagnation);
+	}
+
+	private static List<Double> generateCodebook(int size, Random randomNumberGenerator) {
+		List<Double> codebook = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			codebook.add(2 * randomNumberGenerator.nextGaussian());
+		return codebook;
+	}
+
+	private static int[] randomState(int size, Random randomNumberGenerator) {
+		int[] state = new int[size];
+		for (int i = 0; i < size; i++)
+			state[i] = i;
+		for (int i = size - 1; i > 0; i--) {
+			int j = randomNumberGenerator.nextInt(i + 1);
+			int swap = state[i];
+			state[i] = state[j];
+			state[j] = swap;
+		}
+		return state;
+	}
+
+}
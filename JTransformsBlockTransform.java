@@ -0,0 +1,34 @@
+//see http://wendykierp.github.io/JTransforms/apidocs/org/jtransforms/dct/DoubleDCT_2D.html
+import org.jtransforms.dct.*;
+
+/**
+ * The full block DCT of JTransforms.
+ */
+public class JTransformsBlockTransform implements BlockTransform {
+
+	private final DoubleDCT_2D dct;
+
+
+	/**
+	 * @param blockSize Width and height of the blocks.
+	 */
+	public JTransformsBlockTransform(int blockSize) {
+		this.dct = new DoubleDCT_2D(blockSize, blockSize);
+	} // end constructor
+
+	@Override
+	public void forward(double[] block) {
+		dct.forward(block, true); // performs the dct in-place on the given array
+	} // end forward()
+
+	@Override
+	public void inverse(double[] block) {
+		dct.inverse(block, true); // performs the inverse dct in-place on the given array
+	} // end inverse()
+
+	@Override
+	public boolean computesAllCoefficients() {
+		return true;
+	} // end computesAllCoefficients()
+
+}
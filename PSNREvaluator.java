@@ -0,0 +1,239 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the PSNR of the coder over noisy channels by Monte Carlo simulation, without any GUI.
+ * For every image and channel, the image is encoded once with the coder trained for that channel,
+ * then sent through the channel and decoded once per trial. Trials run in parallel, each with its
+ * own random number generator split from the seed in trial order, so results can be repeated.
+ *
+ * Usage: java PSNREvaluator -images lenna.png[,more.png] -ber 0.005,0.01,0.05 -burst 0,5 -trials 1000
+ *        [-rate 1] [-seed 123456789] [-threads N]
+ */
+public class PSNREvaluator {
+
+	private static final long DEFAULT_SEED = 123456789;
+	private static final int CHUNKS_PER_THREAD = 4; // trials are split into a few chunks per thread to balance the load
+
+	private final CoderCache coderCache;
+	private final int coderRate;
+	private final ExecutorService executor;
+	private final int numThreads;
+
+
+	/**
+	 * @param coderCache Supplies the coder for each channel.
+	 * @param coderRate The overall rate of the coders.
+	 * @param executor Runs the trials. It is not shut down by the evaluator.
+	 * @param numThreads Number of threads of the executor, used to size the chunks of trials.
+	 */
+	public PSNREvaluator(CoderCache coderCache, int coderRate, ExecutorService executor, int numThreads) {
+		this.coderCache = coderCache;
+		this.coderRate = coderRate;
+		this.executor = executor;
+		this.numThreads = numThreads;
+	} // end constructor
+
+	/**
+	 * Evaluates every image over every combination of bit error rate and burst level.
+	 * @param imageFilenames The images to encode.
+	 * @param bitErrorRates Bit error rates of the channels.
+	 * @param burstLevels Burst levels of the channels.
+	 * @param numTrials Number of channel realizations per image and channel. Must be positive.
+	 * @param seed Seed of the channel realizations.
+	 * @return One result per image and channel, images in the outer loop, then bit error rates, then burst levels.
+	 */
+	public List<Result> evaluate(List<String> imageFilenames, double[] bitErrorRates, double[] burstLevels, int numTrials, long seed) {
+		if (numTrials <= 0) // a result needs at least one trial for its mean and percentiles
+			throw new IllegalArgumentException("Number of trials must be positive: " + numTrials);
+		List<Result> results = new ArrayList<>();
+		for (String imageFilename : imageFilenames) {
+			BufferedImage sourceImage = ImageManager.getImageFromFilename(imageFilename);
+			double[] sourcePixels = ImageManager.getGrayScaleValues(sourceImage, null);
+			for (double bitErrorRate : bitErrorRates) {
+				for (double burstLevel : burstLevels) {
+					Channel channel = new Channel(bitErrorRate, burstLevel);
+					Coder coder = coderCache.getCoder(channel, coderRate);
+					EncodedImage encodedImage = coder.encode(sourcePixels, sourceImage.getHeight(), sourceImage.getWidth(), executor);
+					double[] psnrs = runTrials(coder, channel, encodedImage, sourcePixels, numTrials, seed);
+					results.add(new Result(imageFilename, channel, psnrs));
+				}
+			}
+		}
+		return results;
+	} // end evaluate()
+
+	/**
+	 * Sends one encoded image through a channel numTrials times and measures each decoded image.
+	 * @return The PSNR of each trial, in trial order.
+	 */
+	private double[] runTrials(Coder coder, Channel channel, EncodedImage encodedImage, double[] sourcePixels, int numTrials, long seed) {
+		double[] psnrs = new double[numTrials];
+		SplittableRandom seeds = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[numTrials];
+		for (int trial = 0; trial < numTrials; trial++)
+			randoms[trial] = seeds.split();
+
+		int numChunks = Math.max(1, Math.min(numTrials, CHUNKS_PER_THREAD * numThreads));
+		List<Future<?>> futures = new ArrayList<>(numChunks);
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			int firstTrial = (int) ((long) numTrials * chunk / numChunks);
+			int endTrial = (int) ((long) numTrials * (chunk + 1) / numChunks);
+			futures.add(executor.submit(() -> {
+				for (int trial = firstTrial; trial < endTrial; trial++) {
+					BitBuffer receivedData = channel.sendThroughChannel(encodedImage.getEncodedData(), randoms[trial]);
+					double[] decodedPixels = coder.decodePixels(encodedImage.withEncodedData(receivedData), null);
+					psnrs[trial] = Coder.computePSNR(sourcePixels, decodedPixels);
+				}
+			}));
+		}
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running trials", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		return psnrs;
+	} // end runTrials()
+
+	public static void main(String[] args) {
+		List<String> imageFilenames = new ArrayList<>();
+		double[] bitErrorRates = null, burstLevels = {0};
+		int numTrials = 100, coderRate = 1, numThreads = Runtime.getRuntime().availableProcessors();
+		long seed = DEFAULT_SEED;
+		try {
+			for (int i = 0; i + 1 < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-images": imageFilenames.addAll(Arrays.asList(value.split(","))); break;
+				case "-ber": bitErrorRates = parseDoubles(value); break;
+				case "-burst": burstLevels = parseDoubles(value); break;
+				case "-trials": numTrials = Integer.parseInt(value); break;
+				case "-rate": coderRate = Integer.parseInt(value); break;
+				case "-seed": seed = Long.parseLong(value); break;
+				case "-threads": numThreads = Integer.parseInt(value); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			bitErrorRates = null;
+		}
+		if (imageFilenames.isEmpty() || bitErrorRates == null || numTrials <= 0 || numThreads <= 0 || args.length % 2 != 0) {
+			System.out.println("Usage: java PSNREvaluator -images <file>[,<file>...] -ber <rate>[,<rate>...] [-burst <level>[,<level>...]]");
+			System.out.println("       [-trials <count>] [-rate <coder rate>] [-seed <seed>] [-threads <count>]");
+			System.exit(1);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			PSNREvaluator evaluator = new PSNREvaluator(new CoderCache(bitErrorRates.length * burstLevels.length), coderRate, executor, numThreads);
+			long timeInit = System.nanoTime();
+			List<Result> results = evaluator.evaluate(imageFilenames, bitErrorRates, burstLevels, numTrials, seed);
+			System.out.println(Result.HEADER);
+			for (Result result : results)
+				System.out.println(result);
+			System.out.printf("%d trials per configuration in %.1f s%n", numTrials, (System.nanoTime() - timeInit) / 1e9);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] values = list.split(",");
+		double[] parsed = new double[values.length];
+		for (int i = 0; i < values.length; i++)
+			parsed[i] = Double.parseDouble(values[i]);
+		return parsed;
+	} // end parseDoubles()
+
+	/**
+	 * The PSNR distribution of one image over one channel.
+	 */
+	public static class Result {
+
+		static final String HEADER = String.format("%-20s %8s %6s %7s %9s %9s %9s %9s %9s %9s",
+				"image", "ber", "burst", "trials", "mean", "variance", "p5", "median", "p95", "min");
+
+		private final String imageFilename;
+		private final Channel channel;
+		private final double[] sortedPSNRs;
+		private final double mean, variance;
+
+
+		private Result(String imageFilename, Channel channel, double[] psnrs) {
+			this.imageFilename = imageFilename;
+			this.channel = channel;
+			this.sortedPSNRs = psnrs.clone();
+			Arrays.sort(sortedPSNRs);
+			double sum = 0;
+			for (double psnr : psnrs)
+				sum += psnr;
+			this.mean = sum / psnrs.length;
+			double sumSquaredDeviations = 0;
+			for (double psnr : psnrs)
+				sumSquaredDeviations += (psnr - mean) * (psnr - mean);
+			this.variance = psnrs.length > 1 ? sumSquaredDeviations / (psnrs.length - 1) : 0; // sample variance
+		} // end constructor
+
+		public String getImageFilename() {
+			return imageFilename;
+		} // end imageFilename accessor
+
+		public Channel getChannel() {
+			return channel;
+		} // end channel accessor
+
+		public int getNumTrials() {
+			return sortedPSNRs.length;
+		} // end numTrials accessor
+
+		/**
+		 * @return Mean PSNR over the trials, in decibels.
+		 */
+		public double getMean() {
+			return mean;
+		} // end getMean()
+
+		/**
+		 * @return Sample variance of the PSNR over the trials.
+		 */
+		public double getVariance() {
+			return variance;
+		} // end getVariance()
+
+		/**
+		 * @param percent Percentile wanted, between 0 and 100.
+		 * @return The PSNR at that percentile, interpolating linearly between trials.
+		 */
+		public double getPercentile(double percent) {
+			if (percent < 0 || percent > 100)
+				throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percent);
+			double rank = percent / 100 * (sortedPSNRs.length - 1);
+			int lower = (int) Math.floor(rank);
+			int upper = Math.min(lower + 1, sortedPSNRs.length - 1);
+			return sortedPSNRs[lower] + (rank - lower) * (sortedPSNRs[upper] - sortedPSNRs[lower]);
+		} // end getPercentile()
+
+		@Override
+		public String toString() {
+			return String.format("%-20s %8s %6s %7d %9.3f %9.4f %9.3f %9.3f %9.3f %9.3f", imageFilename, channel.getBitErrorRate(),
+					channel.getBurstLevel(), getNumTrials(), mean, variance, getPercentile(5), getPercentile(50), getPercentile(95),
+					sortedPSNRs[0]);
+		} // end toString()
+
+	}
+
+}
@@ -0,0 +1,94 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+public class PSNREvaluatorTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int IMAGE_SIZE = 128;
+	private static final int NUM_TRIALS = 40;
+	private static final int NUM_THREADS = 4;
+	private static final double[] BIT_ERROR_RATES = {0.01, 0.05};
+	private static final double[] BURST_LEVELS = {0, 5};
+
+	public static void main(String[] args) throws IOException {
+		File imageFile = File.createTempFile("evaluator", ".png");
+		imageFile.deleteOnExit();
+		ImageIO.write(TestFixtures.syntheticGrayImage(IMAGE_SIZE, IMAGE_SIZE, RNG_SEED), "png", imageFile);
+		List<String> imageFilenames = List.of(imageFile.getPath());
+		CoderCache coderCache = new CoderCache(BIT_ERROR_RATES.length * BURST_LEVELS.length,
+				(channel, coderRate) -> new Coder(TestFixtures.uniformCOSQs(channel), coderRate));
+
+		// the same seed must give the same results on one thread and on several
+		List<List<PSNREvaluator.Result>> runs = new ArrayList<>();
+		for (int numThreads : new int[] {1, NUM_THREADS}) {
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			runs.add(new PSNREvaluator(coderCache, 1, executor, numThreads).evaluate(imageFilenames, BIT_ERROR_RATES, BURST_LEVELS, NUM_TRIALS, RNG_SEED));
+			executor.shutdown();
+		}
+		int mismatches = 0;
+		for (int r = 0; r < runs.get(0).size(); r++) {
+			if (!summarize(runs.get(0).get(r)).equals(summarize(runs.get(1).get(r))))
+				mismatches++;
+		}
+		System.out.println("1 thread against " + NUM_THREADS + " threads: " + mismatches + " mismatches");
+
+		// and the same statistics as a plain loop of encode, channel and decode
+		double[] sourcePixels = ImageManager.getGrayScaleValues(ImageIO.read(imageFile), null);
+		mismatches = 0;
+		int index = 0;
+		for (double bitErrorRate : BIT_ERROR_RATES) {
+			for (double burstLevel : BURST_LEVELS) {
+				Channel channel = new Channel(bitErrorRate, burstLevel);
+				Coder coder = coderCache.getCoder(channel, 1);
+				EncodedImage encodedImage = coder.encode(sourcePixels, IMAGE_SIZE, IMAGE_SIZE, null);
+				SplittableRandom seeds = new SplittableRandom(RNG_SEED);
+				double[] psnrs = new double[NUM_TRIALS];
+				for (int trial = 0; trial < NUM_TRIALS; trial++) {
+					BitBuffer receivedData = channel.sendThroughChannel(encodedImage.getEncodedData(), seeds.split());
+					psnrs[trial] = Coder.computePSNR(sourcePixels, coder.decodePixels(encodedImage.withEncodedData(receivedData), null));
+				}
+				PSNREvaluator.Result result = runs.get(1).get(index++);
+				double mean = 0;
+				for (double psnr : psnrs)
+					mean += psnr / NUM_TRIALS;
+				double variance = 0;
+				for (double psnr : psnrs)
+					variance += (psnr - mean) * (psnr - mean) / (NUM_TRIALS - 1);
+				Arrays.sort(psnrs);
+				double median = (psnrs[NUM_TRIALS / 2 - 1] + psnrs[NUM_TRIALS / 2]) / 2; // an even number of trials
+				if (!isClose(result.getMean(), mean) || !isClose(result.getVariance(), variance) || !isClose(result.getPercentile(50), median)
+						|| result.getPercentile(0) != psnrs[0] || result.getPercentile(100) != psnrs[NUM_TRIALS - 1]
+						|| result.getPercentile(5) < psnrs[1] || result.getPercentile(5) > psnrs[2])
+					mismatches++;
+			}
+		}
+		System.out.println("Against a sequential loop: " + mismatches + " mismatches in mean, variance and percentiles");
+
+		// no trials would leave nothing to summarize
+		boolean rejected = false;
+		try {
+			new PSNREvaluator(coderCache, 1, null, 1).evaluate(imageFilenames, BIT_ERROR_RATES, BURST_LEVELS, 0, RNG_SEED);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		System.out.println("No trials: " + (rejected ? "rejected" : "NOT REJECTED"));
+	}
+
+	private static String summarize(PSNREvaluator.Result result) {
+		return result.getMean() + " " + result.getVariance() + " " + result.getPercentile(5) + " " + result.getPercentile(50) + " "
+				+ result.getPercentile(95);
+	}
+
+	private static boolean isClose(double actual, double expected) {
+		return Math.abs(actual - expected) <= 1e-9 * (1 + Math.abs(expected));
+	}
+
+}
@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ * A block DCT that only works with the coefficients a bit allocation keeps. With the basis
+ * C(u, m) = a(u) cos((2m + 1) u pi / 2N), a(0) = sqrt(1/N) and a(u) = sqrt(2/N) otherwise, the
+ * forward transform is X(u, v) = sum_m C(u, m) sum_n C(v, n) x(m, n). It is computed separably, but
+ * only for the rows u and then the coefficients (u, v) that are kept; the others are left at zero.
+ *
+ * On the inverse side every coefficient that is not kept is taken to hold the same fill value f,
+ * which is what the decoder produces when it de-normalizes its zeros. Then
+ * x(m, n) = f w(m) w(n) + sum over kept (u, v) of (X(u, v) - f) C(u, m) C(v, n), where
+ * w(m) = sum_u C(u, m) is the inverse of a block of ones, so only the kept coefficients are visited.
+ *
+ * Because the transform is orthonormal, the statistics of a whole block can still be found in the
+ * pixel domain: the sum of its coefficients is sum_m sum_n w(m) w(n) x(m, n) and the sum of their
+ * squares is the sum of the squared pixels.
+ */
+public class PrunedBlockTransform implements BlockTransform {
+
+	private final int blockSize;
+	private final double[] basis;         // [u * N + m] : C(u, m)
+	private final double[] sumWeights;    // [m * N + n] : w(m) w(n)
+	private final int[] keptRows;         // rows u with at least one kept coefficient
+	private final int[][] keptColumns;    // [r] : the kept columns v of row keptRows[r]
+	private final int firstDropped;       // index of a coefficient that is not kept, or -1
+	private final double[] rowTransform;  // [r * N + n] : scratch for the separable sums
+
+
+	/**
+	 * @param blockSize Width and height of the blocks.
+	 * @param keptCoefficients [u * N + v] : whether coefficient (u, v) is kept.
+	 */
+	public PrunedBlockTransform(int blockSize, boolean[] keptCoefficients) {
+		if (keptCoefficients.length != blockSize * blockSize)
+			throw new IllegalArgumentException("Expected " + blockSize * blockSize + " flags, got " + keptCoefficients.length);
+		this.blockSize = blockSize;
+		this.basis = computeBasis(blockSize);
+		this.sumWeights = computeSumWeights(blockSize, basis);
+
+		int numKeptRows = 0;
+		int[] rows = new int[blockSize];
+		int[][] columns = new int[blockSize][];
+		int dropped = -1;
+		for (int u = 0; u < blockSize; u++) {
+			int numKept = 0;
+			for (int v = 0; v < blockSize; v++) {
+				if (keptCoefficients[u * blockSize + v])
+					numKept++;
+				else if (dropped < 0)
+					dropped = u * blockSize + v;
+			}
+			if (numKept == 0)
+				continue;
+			columns[numKeptRows] = new int[numKept];
+			numKept = 0;
+			for (int v = 0; v < blockSize; v++) {
+				if (keptCoefficients[u * blockSize + v])
+					columns[numKeptRows][numKept++] = v;
+			}
+			rows[numKeptRows++] = u;
+		}
+		this.keptRows = Arrays.copyOf(rows, numKeptRows);
+		this.keptColumns = Arrays.copyOf(columns, numKeptRows);
+		this.firstDropped = dropped;
+		this.rowTransform = new double[numKeptRows * blockSize];
+	} // end constructor
+
+	/**
+	 * Computes the kept coefficients of a block. Coefficients that are not kept are set to zero.
+	 * @param block The block, in row-major form.
+	 */
+	@Override
+	public void forward(double[] block) {
+		int n = blockSize;
+		Arrays.fill(rowTransform, 0);
+		for (int r = 0; r < keptRows.length; r++) {
+			int basisRow = keptRows[r] * n;
+			for (int m = 0; m < n; m++) {
+				double weight = basis[basisRow + m];
+				for (int col = 0; col < n; col++)
+					rowTransform[r * n + col] += weight * block[m * n + col];
+			}
+		}
+		Arrays.fill(block, 0, n * n, 0);
+		for (int r = 0; r < keptRows.length; r++) {
+			int u = keptRows[r];
+			for (int v : keptColumns[r]) {
+				double sum = 0;
+				for (int col = 0; col < n; col++)
+					sum += rowTransform[r * n + col] * basis[v * n + col];
+				block[u * n + v] = sum;
+			}
+		}
+	} // end forward()
+
+	/**
+	 * Rebuilds the pixels of a block from its kept coefficients. The coefficients that are not kept
+	 * must all hold the same value.
+	 * @param block The block, in row-major form.
+	 */
+	@Override
+	public void inverse(double[] block) {
+		int n = blockSize;
+		double fill = firstDropped >= 0 ? block[firstDropped] : 0;
+		for (int r = 0; r < keptRows.length; r++) {
+			int u = keptRows[r];
+			for (int col = 0; col < n; col++) {
+				double sum = 0;
+				for (int v : keptColumns[r])
+					sum += (block[u * n + v] - fill) * basis[v * n + col];
+				rowTransform[r * n + col] = sum;
+			}
+		}
+		for (int index = 0; index < n * n; index++)
+			block[index] = fill * sumWeights[index];
+		for (int r = 0; r < keptRows.length; r++) {
+			int basisRow = keptRows[r] * n;
+			for (int m = 0; m < n; m++) {
+				double weight = basis[basisRow + m];
+				for (int col = 0; col < n; col++)
+					block[m * n + col] += weight * rowTransform[r * n + col];
+			}
+		}
+	} // end inverse()
+
+	@Override
+	public boolean computesAllCoefficients() {
+		return firstDropped < 0;
+	} // end computesAllCoefficients()
+
+	/**
+	 * Computes the sum of all the DCT coefficients of a block from its pixels.
+	 * @param pixels The pixels of the block, in row-major form.
+	 * @return The sum of the coefficients forward() would give if every coefficient were kept.
+	 */
+	public double getCoefficientSum(double[] pixels) {
+		double sum = 0;
+		for (int index = 0; index < blockSize * blockSize; index++)
+			sum += sumWeights[index] * pixels[index];
+		return sum;
+	} // end getCoefficientSum()
+
+	private static double[] computeBasis(int blockSize) {
+		double[] basis = new double[blockSize * blockSize];
+		for (int u = 0; u < blockSize; u++) {
+			double scale = Math.sqrt((u == 0 ? 1.0 : 2.0) / blockSize);
+			for (int m = 0; m < blockSize; m++)
+				basis[u * blockSize + m] = scale * Math.cos((2 * m + 1) * u * Math.PI / (2 * blockSize));
+		}
+		return basis;
+	} // end computeBasis()
+
+	private static double[] computeSumWeights(int blockSize, double[] basis) {
+		double[] weights = new double[blockSize];
+		for (int u = 0; u < blockSize; u++) {
+			for (int m = 0; m < blockSize; m++)
+				weights[m] += basis[u * blockSize + m];
+		}
+		double[] sumWeights = new double[blockSize * blockSize];
+		for (int m = 0; m < blockSize; m++) {
+			for (int col = 0; col < blockSize; col++)
+				sumWeights[m * blockSize + col] = weights[m] * weights[col];
+		}
+		return sumWeights;
+	} // end computeSumWeights()
+
+}
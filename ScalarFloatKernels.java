@@ -0,0 +1,70 @@
+/**
+ * Plain loops over the tables of FloatCoder. This is the fallback when the Vector API is absent.
+ */
+public class ScalarFloatKernels implements FloatBlockKernels {
+
+	private final FloatCoder.Tables tables;
+	private final float[] scaled; // [k] : de-normalized coefficient minus the fill value
+
+
+	public ScalarFloatKernels(FloatCoder.Tables tables) {
+		this.tables = tables;
+		this.scaled = new float[tables.numLanes];
+	} // end constructor
+
+	@Override
+	public void transform(float[] block, float[] coefficients) {
+		int numLanes = tables.numLanes;
+		float[] matrix = tables.forwardMatrix;
+		for (int k = 0; k < numLanes; k++)
+			coefficients[k] = 0;
+		for (int p = 0; p < FloatCoder.Tables.BLOCK_AREA; p++) {
+			float pixel = block[p];
+			int row = p * numLanes;
+			for (int k = 0; k < numLanes; k++)
+				coefficients[k] += matrix[row + k] * pixel;
+		}
+	} // end transform()
+
+	@Override
+	public void normalize(float[] coefficients, float[] means, float[] invStdDevs) {
+		for (int k = 0; k < tables.numLanes; k++)
+			coefficients[k] = (coefficients[k] - means[k]) * invStdDevs[k];
+	} // end normalize()
+
+	@Override
+	public void quantize(float[] coefficients, int[] regions) {
+		float[] thresholds = tables.thresholds;
+		for (int k = 0; k < tables.numKept; k++) {
+			int low = tables.thresholdOffsets[k], high = low + tables.thresholdCounts[k]; // find the first threshold >= x
+			int start = low;
+			float x = coefficients[k];
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (thresholds[mid] < x)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			regions[k] = low - start;
+		}
+	} // end quantize()
+
+	@Override
+	public void reconstruct(float[] values, float[] stdDevs, float[] means, float fill, float[] block) {
+		int numKept = tables.numKept;
+		float[] matrix = tables.inverseMatrix;
+		float[] sumWeights = tables.sumWeights;
+		for (int k = 0; k < numKept; k++)
+			scaled[k] = stdDevs[k] * values[k] + means[k] - fill;
+		for (int p = 0; p < FloatCoder.Tables.BLOCK_AREA; p++)
+			block[p] = fill * sumWeights[p];
+		for (int k = 0; k < numKept; k++) {
+			float weight = scaled[k];
+			int row = k * FloatCoder.Tables.BLOCK_AREA;
+			for (int p = 0; p < FloatCoder.Tables.BLOCK_AREA; p++)
+				block[p] += matrix[row + p] * weight;
+		}
+	} // end reconstruct()
+
+}
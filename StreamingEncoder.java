@@ -0,0 +1,250 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Encodes images that are too large to hold in memory. The image is read through an ImageReader one
+ * strip of block rows at a time, so only one strip of pixels and coefficients is ever held.
+ * The first pass transforms every strip to find the statistics of the DCT coefficients, and the
+ * second pass transforms each strip again and hands its encoded blocks to a sink, in block order.
+ *
+ * The statistics of each strip are merged into running totals with the pairwise update of Chan et al.,
+ * so they agree with Coder.encode() to rounding. Only the coefficients of whole blocks are counted;
+ * for images whose sides are multiples of the block size this is exactly what Coder.encode() does.
+ *
+ * The first pass always uses the full JTransforms DCT, since the statistics cover every coefficient;
+ * the second pass uses the block transform selected in the coder.
+ *
+ * Formats that can only be decoded from the start, such as PNG, are decoded again up to each strip
+ * that is read. Taller strips read such images faster at the cost of memory.
+ */
+public class StreamingEncoder {
+
+	private static final int DEFAULT_STRIP_BLOCK_ROWS = 1;
+
+	private final Coder coder;
+	private final int stripBlockRows; // block rows read at a time
+
+
+	/**
+	 * Creates an encoder that reads one row of blocks at a time.
+	 * @param coder The coder that encodes the blocks.
+	 */
+	public StreamingEncoder(Coder coder) {
+		this(coder, DEFAULT_STRIP_BLOCK_ROWS);
+	} // end constructor
+
+	/**
+	 * @param coder The coder that encodes the blocks.
+	 * @param stripBlockRows Number of block rows read at a time.
+	 */
+	public StreamingEncoder(Coder coder, int stripBlockRows) {
+		if (stripBlockRows <= 0)
+			throw new IllegalArgumentException("Strips must hold at least one block row: " + stripBlockRows);
+		this.coder = coder;
+		this.stripBlockRows = stripBlockRows;
+	} // end strip constructor
+
+	/**
+	 * Encodes an image file into a single EncodedImage. The encoded bits are held in memory, but the
+	 * pixels are not.
+	 * @param imageFile The image to encode.
+	 * @return The encoded image.
+	 * @throws IOException If the image cannot be read.
+	 */
+	public EncodedImage encode(File imageFile) throws IOException {
+		BitBuffer encodedData = new BitBuffer();
+		int[] size = new int[2];
+		ImageStatistics statistics = encode(imageFile, new BandSink() {
+			@Override
+			public void start(ImageStatistics imageStatistics, int imageHeight, int imageWidth) {
+				size[0] = imageHeight;
+				size[1] = imageWidth;
+			}
+
+			@Override
+			public void bandEncoded(int firstBlockRow, BitBuffer encodedBand) {
+				encodedData.append(encodedBand);
+			}
+		});
+		return new EncodedImage(encodedData, statistics, size[0], size[1]);
+	} // end encode(File)
+
+	/**
+	 * Encodes an image file, passing the encoded blocks to a sink one strip at a time.
+	 * @param imageFile The image to encode.
+	 * @param sink Receives the statistics, then every strip of encoded blocks in order.
+	 * @return The statistics of the DCT coefficients, which the decoder needs.
+	 * @throws IOException If the image cannot be read, or the sink fails.
+	 */
+	public ImageStatistics encode(File imageFile, BandSink sink) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+			if (input == null)
+				throw new IOException("Cannot open " + imageFile);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext())
+				throw new IOException("No image reader for " + imageFile);
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, false, true); // the second pass seeks back to the start
+				return encode(reader, sink);
+			} finally {
+				reader.dispose();
+			}
+		}
+	} // end encode(File, BandSink)
+
+	/**
+	 * Encodes the first image of a reader, passing the encoded blocks to a sink one strip at a time.
+	 * @param reader Reader whose input allows seeking backwards.
+	 * @param sink Receives the statistics, then every strip of encoded blocks in order.
+	 * @return The statistics of the DCT coefficients, which the decoder needs.
+	 * @throws IOException If the image cannot be read, or the sink fails.
+	 */
+	public ImageStatistics encode(ImageReader reader, BandSink sink) throws IOException {
+		int blockSize = Coder.getBlockSize();
+		int blockArea = blockSize * blockSize;
+		int imageHeight = reader.getHeight(0);
+		int imageWidth = reader.getWidth(0);
+		int rowFactor = imageHeight / blockSize; // number of NxN blocks per column
+		int colFactor = imageWidth / blockSize; // number of NxN blocks per row
+		if (rowFactor == 0 || colFactor == 0)
+			throw new IllegalArgumentException("Image of " + imageWidth + "x" + imageHeight + " is smaller than one block");
+		int stripWidth = colFactor * blockSize;
+		Strip strip = new Strip(reader, stripWidth, stripBlockRows * blockSize);
+		BlockTransform fullTransform = new JTransformsBlockTransform(blockSize);
+
+		// first pass: merge the moments of each strip into the moments of the image
+		long countDC = 0, countAC = 0;
+		double meanDC = 0, meanAC = 0, sumSquaredDevDC = 0, sumSquaredDevAC = 0;
+		for (int firstRow = 0; firstRow < rowFactor; firstRow += stripBlockRows) {
+			int numRows = Math.min(stripBlockRows, rowFactor - firstRow);
+			double[] coefficients = strip.transform(firstRow, numRows, fullTransform);
+			int numBlocks = numRows * colFactor;
+
+			// moments of this strip, found with two passes over its coefficients
+			double stripSumDC = 0, stripSumAC = 0;
+			for (int block = 0; block < numBlocks; block++) {
+				int offset = block * blockArea;
+				stripSumDC += coefficients[offset];
+				for (int index = 1; index < blockArea; index++)
+					stripSumAC += coefficients[offset + index];
+			}
+			long stripCountDC = numBlocks, stripCountAC = (long) numBlocks * (blockArea - 1);
+			double stripMeanDC = stripSumDC / stripCountDC, stripMeanAC = stripSumAC / stripCountAC;
+			double stripDevDC = 0, stripDevAC = 0;
+			for (int block = 0; block < numBlocks; block++) {
+				int offset = block * blockArea;
+				stripDevDC += (coefficients[offset] - stripMeanDC) * (coefficients[offset] - stripMeanDC);
+				for (int index = 1; index < blockArea; index++)
+					stripDevAC += (coefficients[offset + index] - stripMeanAC) * (coefficients[offset + index] - stripMeanAC);
+			}
+
+			double deltaDC = stripMeanDC - meanDC, deltaAC = stripMeanAC - meanAC;
+			long totalDC = countDC + stripCountDC, totalAC = countAC + stripCountAC;
+			meanDC += deltaDC * stripCountDC / totalDC;
+			meanAC += deltaAC * stripCountAC / totalAC;
+			sumSquaredDevDC += stripDevDC + deltaDC * deltaDC * countDC * stripCountDC / totalDC;
+			sumSquaredDevAC += stripDevAC + deltaAC * deltaAC * countAC * stripCountAC / totalAC;
+			countDC = totalDC;
+			countAC = totalAC;
+		}
+		ImageStatistics statistics = new ImageStatistics(meanDC, meanAC, sumSquaredDevDC / countDC, sumSquaredDevAC / countAC);
+		sink.start(statistics, imageHeight, imageWidth);
+
+		// second pass: transform each strip again, normalize and encode its blocks
+		double stdDevDC = Math.sqrt(statistics.getVarCoeffDC());
+		double stdDevAC = Math.sqrt(statistics.getVarCoeffAC());
+		double[] normCoeffs = new double[blockArea];
+		BlockTransform transform = coder.newBlockTransform();
+		for (int firstRow = 0; firstRow < rowFactor; firstRow += stripBlockRows) {
+			int numRows = Math.min(stripBlockRows, rowFactor - firstRow);
+			double[] coefficients = strip.transform(firstRow, numRows, transform);
+			BitBuffer encodedBand = new BitBuffer((long) numRows * colFactor * coder.getBitsPerBlock());
+			for (int block = 0; block < numRows * colFactor; block++) {
+				int offset = block * blockArea;
+				for (int index = 0; index < blockArea; index++)
+					normCoeffs[index] = (coefficients[offset + index] - meanAC) / stdDevAC;
+				normCoeffs[0] = (coefficients[offset] - meanDC) / stdDevDC;
+				coder.encodeBlock(normCoeffs, encodedBand);
+			}
+			sink.bandEncoded(firstRow, encodedBand);
+		}
+		return statistics;
+	} // end encode(ImageReader, BandSink)
+
+	/**
+	 * Receives the output of a streaming encode.
+	 */
+	public interface BandSink {
+
+		/**
+		 * Called once, after the first pass and before any band.
+		 * @param statistics The statistics of the DCT coefficients of the image.
+		 * @param imageHeight The height of the image, in pixels.
+		 * @param imageWidth The width of the image, in pixels.
+		 * @throws IOException If the sink fails.
+		 */
+		void start(ImageStatistics statistics, int imageHeight, int imageWidth) throws IOException;
+
+		/**
+		 * Called for each strip in order. The bands concatenated in order are the encoded image.
+		 * @param firstBlockRow Index of the first block row in the band.
+		 * @param encodedBand The encoded blocks of the band, in block order.
+		 * @throws IOException If the sink fails.
+		 */
+		void bandEncoded(int firstBlockRow, BitBuffer encodedBand) throws IOException;
+	}
+
+	/**
+	 * Reads strips of block rows and transforms them, reusing its buffers from strip to strip.
+	 */
+	private static class Strip {
+		private final ImageReader reader;
+		private final ImageReadParam param;
+		private final int stripWidth;
+		private final double[] blockCoeffs; // required since DCT is applied in-place
+		private double[] pixels;
+		private final double[] coefficients; // [block * blockArea + index] : coefficients of each block, in block order
+
+		private Strip(ImageReader reader, int stripWidth, int stripHeight) {
+			int blockSize = Coder.getBlockSize();
+			this.reader = reader;
+			this.param = reader.getDefaultReadParam();
+			this.stripWidth = stripWidth;
+			this.blockCoeffs = new double[blockSize * blockSize];
+			this.pixels = new double[stripWidth * stripHeight];
+			this.coefficients = new double[stripWidth * stripHeight];
+		}
+
+		/**
+		 * Reads block rows [firstRow, firstRow + numRows) and applies a DCT to each of their blocks.
+		 * @return The coefficients, valid until the next call.
+		 */
+		private double[] transform(int firstRow, int numRows, BlockTransform transform) throws IOException {
+			int blockSize = Coder.getBlockSize();
+			int blockArea = blockSize * blockSize;
+			int colFactor = stripWidth / blockSize;
+			param.setSourceRegion(new Rectangle(0, firstRow * blockSize, stripWidth, numRows * blockSize));
+			BufferedImage stripImage = reader.read(0, param);
+			pixels = ImageManager.getGrayScaleValues(stripImage, pixels);
+			for (int i = 0; i < numRows; i++) {
+				for (int j = 0; j < colFactor; j++) {
+					for (int row = 0; row < blockSize; row++)
+						System.arraycopy(pixels, (i * blockSize + row) * stripWidth + j * blockSize, blockCoeffs, row * blockSize, blockSize);
+					transform.forward(blockCoeffs); // performs the dct in-place on the given array
+					System.arraycopy(blockCoeffs, 0, coefficients, (i * colFactor + j) * blockArea, blockArea);
+				}
+			}
+			return coefficients;
+		}
+	}
+
+}
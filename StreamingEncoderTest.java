@@ -0,0 +1,42 @@
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+public class StreamingEncoderTest {
+
+	private static final int RNG_SEED = 123456789;
+	private static final int IMAGE_HEIGHT = 1024;
+	private static final int IMAGE_WIDTH = 768;
+
+	public static void main(String[] args) throws Exception {
+		Coder coder = new Coder(TestFixtures.uniformCOSQs(null), 1);
+		File imageFile = File.createTempFile("streaming", ".png");
+		imageFile.deleteOnExit();
+		ImageIO.write(TestFixtures.syntheticGrayImage(IMAGE_HEIGHT, IMAGE_WIDTH, RNG_SEED), "png", imageFile);
+
+		EncodedImage expected = coder.encode(imageFile.getPath());
+		for (int stripBlockRows : new int[] {1, 5, IMAGE_HEIGHT}) {
+			long timeInit = System.nanoTime();
+			EncodedImage streamed = new StreamingEncoder(coder, stripBlockRows).encode(imageFile);
+			long elapsed = System.nanoTime() - timeInit;
+
+			// the statistics agree to rounding, so the bits should match those of the in-memory encoder
+			ImageStatistics a = expected.getStatistics(), b = streamed.getStatistics();
+			double maxRelativeError = Math.max(Math.max(relativeError(a.getMeanCoeffDC(), b.getMeanCoeffDC()),
+					relativeError(a.getMeanCoeffAC(), b.getMeanCoeffAC())), Math.max(relativeError(a.getVarCoeffDC(),
+					b.getVarCoeffDC()), relativeError(a.getVarCoeffAC(), b.getVarCoeffAC())));
+			BitBuffer expectedBits = expected.getEncodedData(), streamedBits = streamed.getEncodedData();
+			long differingBits = 0;
+			for (long i = 0; i < Math.min(expectedBits.size(), streamedBits.size()); i++)
+				differingBits += expectedBits.getBit(i) ^ streamedBits.getBit(i);
+			System.out.println(stripBlockRows + " block rows per strip: " + streamedBits.size() + " of " + expectedBits.size()
+					+ " bits, " + differingBits + " differing, statistics within " + maxRelativeError + ", "
+					+ elapsed / 1000000 + " ms");
+		}
+	}
+
+	private static double relativeError(double expected, double actual) {
+		return Math.abs(expected - actual) / Math.abs(expected);
+	}
+
+}
@@ -0,0 +1,76 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Quantizers and images shared by the tests and benchmarks, so they do not need trained coders
+ * or image files on disk.
+ */
+class TestFixtures {
+
+	private static final double CODEBOOK_RANGE = 3; // uniform codewords cover [-CODEBOOK_RANGE, CODEBOOK_RANGE]
+
+	private TestFixtures() {
+	}
+
+	/**
+	 * @param channel Channel the quantizers are optimized for, or null for nearest neighbour encoding.
+	 * @return A uniform COSQ for every rate in Coder's bit allocation at coder rate 1, keyed as Coder expects.
+	 */
+	static Map<Integer, COSQ> uniformCOSQs(Channel channel) {
+		int[][] bitAllocation = Coder.getBitAllocation();
+		Map<Integer, COSQ> cosqs = new HashMap<>();
+		cosqs.put(-1, uniformCOSQ(bitAllocation[0][0], channel)); // dc pixel
+		for (int row = 0; row < bitAllocation.length; row++) {
+			for (int col = 0; col < bitAllocation[row].length; col++) {
+				int rate = bitAllocation[row][col];
+				if ((row != 0 || col != 0) && rate != 0 && !cosqs.containsKey(rate))
+					cosqs.put(rate, uniformCOSQ(rate, channel));
+			}
+		}
+		return cosqs;
+	} // end uniformCOSQs()
+
+	/**
+	 * @param rate Number of bits per codeword.
+	 * @param channel Channel the quantizer is optimized for, or null for nearest neighbour encoding.
+	 * @return A COSQ with 2^rate evenly spaced codewords.
+	 */
+	static COSQ uniformCOSQ(int rate, Channel channel) {
+		int size = 1 << rate;
+		List<Double> codebook = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			codebook.add(-CODEBOOK_RANGE + 2 * CODEBOOK_RANGE * (i + 0.5) / size);
+		return channel == null ? new COSQ(codebook) : new COSQ(codebook, channel);
+	} // end uniformCOSQ()
+
+	/**
+	 * @return A smooth pattern with Gaussian noise, around mid-gray, that is not clamped to the pixel range.
+	 */
+	static double[][] syntheticImage(int height, int width, long seed) {
+		Random randomNumberGenerator = new Random(seed);
+		double[][] image = new double[height][width];
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++)
+				image[i][j] = 128 + 64 * Math.sin(i / 9.0) * Math.cos(j / 7.0) + 16 * randomNumberGenerator.nextGaussian();
+		}
+		return image;
+	} // end syntheticImage()
+
+	/**
+	 * @return The synthetic image rounded and clamped to 8-bit gray levels.
+	 */
+	static BufferedImage syntheticGrayImage(int height, int width, long seed) {
+		double[][] pixels = syntheticImage(height, width, seed);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++)
+				image.getRaster().setSample(j, i, 0, Math.max(0, Math.min(255, (int) Math.round(pixels[i][j]))));
+		}
+		return image;
+	} // end syntheticGrayImage()
+
+}
@@ -1,7 +1,6 @@
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -26,10 +25,13 @@ public class ThesisMain {
 	private static void testCoder(double bitErrorRate, double burstLevel) throws IOException {
 		Channel testChannel = new Channel(bitErrorRate, burstLevel);
 		Coder testCoder = CoderFactory.loadCoder(testChannel, 1);
-		List<Byte> encodedImage = testCoder.encodeImage("lenna.png");
-		List<Byte> distortedEncodedImage = testChannel.sendThroughChannel(encodedImage);
-			
-		BufferedImage image = testCoder.decodeImage(distortedEncodedImage, 512, 512);
+		double[][] sourceImage = ImageManager.getGrayScaleValuesFromFilename("lenna.png");
+		EncodedImage encodedImage = testCoder.encode(sourceImage);
+		EncodedImage distortedEncodedImage = encodedImage.withEncodedData(testChannel.sendThroughChannel(encodedImage.getEncodedData()));
+		
+		double[] decodedPixels = testCoder.decodePixels(distortedEncodedImage, null);
+		System.out.println("PSNR = " + Coder.computePSNR(ImageManager.toRowMajor(sourceImage), decodedPixels) + "dB");
+		BufferedImage image = ImageManager.getBufferedImageFromGrayScaleValues(decodedPixels, encodedImage.getImageHeight());
 		
 		File outputfile = new File("With1 Channel Coding Lenna eps=" + bitErrorRate + " del=" + burstLevel + ".png");
 		ImageIO.write(image, "png", outputfile);
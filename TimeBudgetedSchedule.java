@@ -0,0 +1,86 @@
+/**
+ * Spreads a geometric cooling from an initial to a final temperature over a fixed wall-clock budget:
+ * the temperature after a fraction f of the budget is initialTemp * (finalTemp / initialTemp)^f, and
+ * annealing stops when the budget is spent. The budget applies to each chain, so chains that wait
+ * for a thread do not eat into it.
+ *
+ * A schedule made with forWindow also has a deadline shared by every chain. A chain that starts late
+ * cools over the time left before the deadline instead of its full budget, and a chain that has not
+ * started by the deadline does not run, so training on a bounded pool ends within the window.
+ */
+public class TimeBudgetedSchedule implements AnnealingSchedule {
+
+	private final double initialTemp, finalTemp;
+	private final long budgetNanos;
+	private final int maxPerturbations;
+	private final boolean hasDeadline;
+	private final long deadlineNanos; // in System.nanoTime() terms, when hasDeadline
+
+
+	/**
+	 * @param initialTemp Temperature at the start of the budget.
+	 * @param finalTemp Temperature at the end of the budget.
+	 * @param budgetMillis Time each chain may run.
+	 * @param maxPerturbations Number of perturbations in a row without a new best energy that end a stage.
+	 */
+	public TimeBudgetedSchedule(double initialTemp, double finalTemp, long budgetMillis, int maxPerturbations) {
+		this(initialTemp, finalTemp, budgetMillis, maxPerturbations, false, 0);
+	} // end constructor
+
+	private TimeBudgetedSchedule(double initialTemp, double finalTemp, long budgetMillis, int maxPerturbations,
+			boolean hasDeadline, long deadlineNanos) {
+		if (!(initialTemp > 0 && finalTemp > 0 && finalTemp <= initialTemp && budgetMillis > 0 && maxPerturbations > 0))
+			throw new IllegalArgumentException("Invalid time budgeted schedule");
+		this.initialTemp = initialTemp;
+		this.finalTemp = finalTemp;
+		this.budgetNanos = budgetMillis * 1000000;
+		this.maxPerturbations = maxPerturbations;
+		this.hasDeadline = hasDeadline;
+		this.deadlineNanos = deadlineNanos;
+	} // end private constructor
+
+	/**
+	 * Creates a schedule whose chains all finish within a window that starts now, however many of them
+	 * wait for a thread. Create it just before training, or before the work that precedes training if
+	 * that should count against the window too.
+	 * @param initialTemp Temperature at the start of each chain.
+	 * @param finalTemp Temperature at the end of each chain.
+	 * @param windowMillis Time from now until every chain must have stopped.
+	 * @param maxPerturbations Number of perturbations in a row without a new best energy that end a stage.
+	 * @return The schedule.
+	 */
+	public static TimeBudgetedSchedule forWindow(double initialTemp, double finalTemp, long windowMillis, int maxPerturbations) {
+		return new TimeBudgetedSchedule(initialTemp, finalTemp, windowMillis, maxPerturbations, true,
+				System.nanoTime() + windowMillis * 1000000);
+	} // end forWindow()
+
+	@Override
+	public double getInitialTemperature() {
+		return initialTemp;
+	} // end getInitialTemperature()
+
+	@Override
+	public int getMaxPerturbations() {
+		return maxPerturbations;
+	} // end getMaxPerturbations()
+
+	@Override
+	public double nextTemperature(double temp, double acceptanceRate, long elapsedNanos) {
+		long chainBudgetNanos = budgetNanos;
+		if (hasDeadline) { // elapsed plus remaining is the same at every stage of a chain
+			long remainingNanos = deadlineNanos - System.nanoTime();
+			if (remainingNanos <= 0)
+				return 0;
+			chainBudgetNanos = Math.min(chainBudgetNanos, elapsedNanos + remainingNanos);
+		}
+		if (elapsedNanos >= chainBudgetNanos)
+			return 0;
+		return initialTemp * Math.pow(finalTemp / initialTemp, (double) elapsedNanos / chainBudgetNanos);
+	} // end nextTemperature()
+
+	@Override
+	public boolean isPastDeadline() {
+		return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+	} // end isPastDeadline()
+
+}
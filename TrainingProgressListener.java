@@ -0,0 +1,54 @@
+/**
+ * Receives progress from CoderFactory while it trains COSQs. Quantizers are trained concurrently,
+ * so implementations must be thread-safe.
+ */
+public interface TrainingProgressListener {
+
+	/**
+	 * Called when training of one quantizer begins.
+	 * @param key Key of the quantizer in the coder: its rate, or -1 for the DC quantizer.
+	 * @param numBits Number of bits in each codeword.
+	 */
+	void quantizerStarted(int key, int numBits);
+
+	/**
+	 * Called when training of one quantizer is done.
+	 * @param key Key of the quantizer in the coder: its rate, or -1 for the DC quantizer.
+	 * @param numBits Number of bits in each codeword.
+	 * @param elapsedMillis Time spent training this quantizer.
+	 */
+	void quantizerFinished(int key, int numBits, long elapsedMillis);
+
+	/**
+	 * A listener that prints one line per quantizer to standard output.
+	 */
+	TrainingProgressListener CONSOLE = new TrainingProgressListener() {
+		@Override
+		public void quantizerStarted(int key, int numBits) {
+			System.out.println("Training " + describe(key) + " (" + numBits + " bits)");
+		}
+
+		@Override
+		public void quantizerFinished(int key, int numBits, long elapsedMillis) {
+			System.out.println("Trained " + describe(key) + " (" + numBits + " bits) in " + elapsedMillis / 1000.0 + " s");
+		}
+
+		private String describe(int key) {
+			return key == -1 ? "DC quantizer" : "rate " + key + " AC quantizer";
+		}
+	};
+
+	/**
+	 * A listener that ignores all progress.
+	 */
+	TrainingProgressListener NONE = new TrainingProgressListener() {
+		@Override
+		public void quantizerStarted(int key, int numBits) {
+		}
+
+		@Override
+		public void quantizerFinished(int key, int numBits, long elapsedMillis) {
+		}
+	};
+
+}
@@ -0,0 +1,37 @@
+/**
+ * An image between the two halves of encoding: its block DCT coefficients and their statistics.
+ */
+public class TransformedImage {
+
+	private final double[] coefficients; // row-major form, each block in place of its pixels
+	private final ImageStatistics statistics;
+	private final int imageHeight, imageWidth;
+
+
+	public TransformedImage(double[] coefficients, ImageStatistics statistics, int imageHeight, int imageWidth) {
+		this.coefficients = coefficients;
+		this.statistics = statistics;
+		this.imageHeight = imageHeight;
+		this.imageWidth = imageWidth;
+	} // end constructor
+
+	/**
+	 * @return The DCT coefficients in row-major form, each block in place of its pixels. The array is not copied.
+	 */
+	public double[] getCoefficients() {
+		return coefficients;
+	} // end coefficients accessor
+
+	public ImageStatistics getStatistics() {
+		return statistics;
+	} // end statistics accessor
+
+	public int getImageHeight() {
+		return imageHeight;
+	} // end imageHeight accessor
+
+	public int getImageWidth() {
+		return imageWidth;
+	} // end imageWidth accessor
+
+}
@@ -0,0 +1,80 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels of FloatCoder written with the incubating Vector API. This class is kept out of the
+ * main source directory because it only compiles and runs with the incubator module:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp <classes> -d <classes> vector/VectorFloatKernels.java
+ *   java --add-modules jdk.incubator.vector -cp <classes> ...
+ *
+ * FloatCoder loads it by name and falls back to ScalarFloatKernels when it is missing.
+ */
+public class VectorFloatKernels implements FloatBlockKernels {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private final FloatCoder.Tables tables;
+	private final float[] scaled; // [k] : de-normalized coefficient minus the fill value
+
+
+	public VectorFloatKernels(FloatCoder.Tables tables) {
+		if (FloatCoder.Tables.LANE_MULTIPLE % SPECIES.length() != 0 || FloatCoder.Tables.BLOCK_AREA % SPECIES.length() != 0)
+			throw new UnsupportedOperationException("Vectors of " + SPECIES.length() + " floats do not divide the lanes");
+		this.tables = tables;
+		this.scaled = new float[tables.numLanes];
+	} // end constructor
+
+	@Override
+	public void transform(float[] block, float[] coefficients) {
+		int numLanes = tables.numLanes;
+		float[] matrix = tables.forwardMatrix;
+		for (int k = 0; k < numLanes; k += SPECIES.length()) {
+			FloatVector sum = FloatVector.zero(SPECIES);
+			for (int p = 0; p < FloatCoder.Tables.BLOCK_AREA; p++)
+				sum = FloatVector.fromArray(SPECIES, matrix, p * numLanes + k).fma(FloatVector.broadcast(SPECIES, block[p]), sum);
+			sum.intoArray(coefficients, k);
+		}
+	} // end transform()
+
+	@Override
+	public void normalize(float[] coefficients, float[] means, float[] invStdDevs) {
+		for (int k = 0; k < tables.numLanes; k += SPECIES.length()) {
+			FloatVector coefficient = FloatVector.fromArray(SPECIES, coefficients, k);
+			coefficient.sub(FloatVector.fromArray(SPECIES, means, k)).mul(FloatVector.fromArray(SPECIES, invStdDevs, k))
+					.intoArray(coefficients, k);
+		}
+	} // end normalize()
+
+	@Override
+	public void quantize(float[] coefficients, int[] regions) {
+		float[] thresholds = tables.thresholds;
+		for (int k = 0; k < tables.numKept; k++) {
+			FloatVector x = FloatVector.broadcast(SPECIES, coefficients[k]);
+			int offset = tables.thresholdOffsets[k], end = offset + tables.paddedThresholdCounts[k];
+			int count = 0; // thresholds below x; the padding is +infinity, so it never counts
+			for (int t = offset; t < end; t += SPECIES.length())
+				count += FloatVector.fromArray(SPECIES, thresholds, t).compare(VectorOperators.LT, x).trueCount();
+			regions[k] = count;
+		}
+	} // end quantize()
+
+	@Override
+	public void reconstruct(float[] values, float[] stdDevs, float[] means, float fill, float[] block) {
+		int numKept = tables.numKept;
+		float[] matrix = tables.inverseMatrix;
+		FloatVector fillVector = FloatVector.broadcast(SPECIES, fill);
+		for (int k = 0; k < tables.numLanes; k += SPECIES.length()) {
+			FloatVector.fromArray(SPECIES, stdDevs, k).fma(FloatVector.fromArray(SPECIES, values, k), FloatVector.fromArray(SPECIES, means, k))
+					.sub(fillVector).intoArray(scaled, k);
+		}
+		for (int p = 0; p < FloatCoder.Tables.BLOCK_AREA; p += SPECIES.length()) {
+			FloatVector pixel = FloatVector.fromArray(SPECIES, tables.sumWeights, p).mul(fillVector);
+			for (int k = 0; k < numKept; k++)
+				pixel = FloatVector.fromArray(SPECIES, matrix, k * FloatCoder.Tables.BLOCK_AREA + p).fma(FloatVector.broadcast(SPECIES, scaled[k]), pixel);
+			pixel.intoArray(block, p);
+		}
+	} // end reconstruct()
+
+}